@@ -15,13 +15,32 @@ package com.lukasanda.dataprovider
 
 import com.google.gson.Gson
 import com.lukasanda.dataprovider.data.*
+import org.htmlcleaner.CleanSession
+import org.htmlcleaner.CleanerProperties
 import org.htmlcleaner.ContentNode
+import org.htmlcleaner.CssSelector
+import org.htmlcleaner.DocumentIndex
 import org.htmlcleaner.HtmlCleaner
 import org.htmlcleaner.TagNode
+import org.htmlcleaner.conditional.TagAllCondition
+import org.htmlcleaner.conditional.TagNodeAttValueCondition
 import kotlin.math.max
 
 object Parser {
 
+    // Pages are parsed from several threads, all of them share one cleaner with frozen
+    // properties, each one cleans with its own session
+    private val htmlCleaner = HtmlCleaner(CleanerProperties().freeze())
+
+    private val session = object : ThreadLocal<CleanSession>() {
+        override fun initialValue(): CleanSession = htmlCleaner.newSession()
+    }
+
+    // Selectors are compiled once and shared by all parses
+    private val headerRow = CssSelector("thead tr")
+    private val bodyRow = CssSelector("tbody tr")
+    private val nestedBody = CssSelector("tbody tbody")
+
     fun getSchedule(webResponse: String): Schedule? {
         if (webResponse.isEmpty()) return null
         val gson = Gson()
@@ -34,11 +53,10 @@ object Parser {
 
     fun getId(webResponse: String): Int? {
         if (webResponse.isEmpty()) return null
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
 
         return try {
-            val items = cleaner.clean(webResponse)
-            return items.findElementByAttValue("name", "formular", true, true).let {
+            return cleaner.findElements(webResponse, TagNodeAttValueCondition("name", "formular", true)).first().let {
                 it.getElementListByName("table", true).component2()
             }.let { it.childTagList.first().childTagList.firstOrNull() }
                 ?.getAllElementsList(true)
@@ -52,19 +70,18 @@ object Parser {
     fun getWifiInfo(webResponse: String): WifiInfo? {
         if (webResponse.isEmpty()) return null
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
 
         return try {
-            val items = cleaner.clean(webResponse)
-
-            val table = items.findElementByAttValue("name", "wqqwqqwwqyw0", true, true).findElementByName("tbody", true)
+            val table = cleaner.findElements(webResponse, TagNodeAttValueCondition("name", "wqqwqqwwqyw0", true)).first()
+                .findElementByName("tbody", true)
 
 
             val node = table.childTagList.component1().childTagList.last()
-            val name = node.getAllElementsList(true).map { it.content() }.filter { it.isNotEmpty() }.firstOrNull() ?: ""
+            val name = node.allElements().map { it.content() }.firstOrNull { it.isNotEmpty() } ?: ""
 
             val node2 = table.childTagList.component2().childTagList.last()
-            val password = node2.getAllElementsList(true).map { it.content() }.filter { it.isNotEmpty() }.firstOrNull() ?: ""
+            val password = node2.allElements().map { it.content() }.firstOrNull { it.isNotEmpty() } ?: ""
 
 
             WifiInfo(name, password)
@@ -85,10 +102,10 @@ object Parser {
     fun getSemesters(webResponse: String): List<Semester>? {
         if (webResponse.isEmpty()) return null
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         return try {
-            val items = cleaner.clean(webResponse)
-            val studies = items.findElementByAttValue("name", "studium", true, true)
+            val index = DocumentIndex(cleaner.clean(webResponse))
+            val studies = index.findElementByNameAttribute("studium")
 
             val studiesParent = studies.parent
 
@@ -97,7 +114,7 @@ object Parser {
 
             //if semesters == null, then we have only the first semester, therefore we don't need to pass anything
             val semesters =
-                items.findElementByAttValue("name", "obdobi", true, true) ?: return listOf(
+                index.findElementByNameAttribute("obdobi") ?: return listOf(
                     Semester("", "", studiesParent.childTagList.last().content())
                 )
             val semesterList = semesters.childTagList.map {
@@ -139,7 +156,7 @@ object Parser {
     fun getCourses(webResponse: String): List<Course>? {
         if (webResponse.isEmpty()) return null
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         val returnList = mutableListOf<Course>()
         return try {
             val items = cleaner.clean(webResponse)
@@ -217,7 +234,7 @@ object Parser {
     fun getSheets(webResponse: String): List<Sheet>? {
         if (webResponse.isEmpty()) return null
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         val returnList = mutableListOf<Sheet>()
 
         return try {
@@ -240,12 +257,12 @@ object Parser {
                 }
 
                 val columnNames =
-                    table.findElementByName("thead", true).findElementByName("tr", true)
+                    headerRow.selectFirst(table)
                         .childTagList.map { it.getString() }.joinToString("#")
 
 
                 val columnValues =
-                    table.findElementByName("tbody", true).findElementByName("tr", true)
+                    bodyRow.selectFirst(table)
                         .childTagList.map { it.getString() }.joinToString("#")
 
                 //Mame tu komentar
@@ -271,7 +288,7 @@ object Parser {
     fun getTeachers(webResponse: String): List<Teacher>? {
         if (webResponse.isEmpty()) return null
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         val returnList = mutableListOf<Teacher>()
 
         return try {
@@ -306,11 +323,9 @@ object Parser {
 
     fun getNewMessageToken(webResponse: String): String {
         if (webResponse.isEmpty()) return ""
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         return try {
-            val items = cleaner.clean(webResponse)
-
-            val tokenElement = items.findElementByAttValue("name", "serializace", true, true)
+            val tokenElement = cleaner.findElements(webResponse, TagNodeAttValueCondition("name", "serializace", true)).first()
             val token = tokenElement.getAttributeByName("value")
             token
         } catch (e: Exception) {
@@ -321,7 +336,7 @@ object Parser {
     fun getEmailInfo(webResponse: String): EmailInfo {
         if (webResponse.isEmpty()) return EmailInfo(-1, "", 0)
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         return try {
             val items = cleaner.clean(webResponse)
 
@@ -350,7 +365,7 @@ object Parser {
 //
 //        val table = doc.select("#tmtab_1")
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         val returnList = mutableListOf<Email>()
         return try {
             val items = cleaner.clean(webResponse)
@@ -410,12 +425,12 @@ object Parser {
     fun getEmailDetail(webResponse: String): EmailDetail {
         if (webResponse.isEmpty()) return EmailDetail()
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         return try {
             val items = cleaner.clean(webResponse)
             val form = items.findElementByAttValue("name", "wqqwqqwwqyw0", true, true)
-            val table = form.findElementByName("tbody", true).findElementByName("tbody", true)
-            val message = table.childTagList.last().getAllElementsList(true).find { it.name == "span" || it.name == "div" }?.allChildren
+            val table = nestedBody.selectFirst(form)
+            val message = table.childTagList.last().allElements().find { it.name == "span" || it.name == "div" }?.allChildren
                 ?.map {
                     if (it is ContentNode) it.content else if (it is TagNode && it.hasAttribute(
                             "href"
@@ -447,7 +462,7 @@ object Parser {
 
     fun getMaxPages(webResponse: String): Pair<Int, Int?>? {
         if (webResponse.isEmpty()) return null
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         return try {
             val items = cleaner.clean(webResponse)
             val arrows = items.getElementListByAttValue("sysid", "tree-vpravo-zarazka", true, true) ?: return Pair(0, null)
@@ -465,17 +480,17 @@ object Parser {
     fun getDocuments(webResponse: String, parentFolder: String = ""): List<Document>? {
         if (webResponse.isEmpty()) return null
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         val returnList = mutableListOf<Document>()
         return try {
-            val items = cleaner.clean(webResponse)
+            val index = DocumentIndex(cleaner.clean(webResponse))
 
-            val topTableHead = items.findElementByAttValue("name", "wqqwqqwwqyw0", true, true).getElementListByName("table", false).find { it.childTagList.size == 2 }
+            val topTableHead = index.findElementByNameAttribute("wqqwqqwwqyw0").getElementListByName("table", false).find { it.childTagList.size == 2 }
             val topTable = topTableHead?.findElementByName("tbody", false)
             topTable?.childTagList?.forEach {
                 if (it.childTagList.size == 1) return@forEach
 
-                val name = it.childTagList.component2().getAllElementsList(true).map { it.content() }.filter { it.isNotEmpty() }.firstOrNull() ?: ""
+                val name = it.childTagList.component2().allElements().map { it.content() }.firstOrNull { it.isNotEmpty() } ?: ""
                 val link: String = it.getElementList({ it.name == "a" && it.getAttributeByName("href").contains("slozka.pl") }, true).firstOrNull()?.getAttributeByName("href") ?: ""
                 val id = link.substringAfter("download=").substringBefore(";")
                 val parentId = link.substringAfter("id=").substringBefore(";")
@@ -484,12 +499,12 @@ object Parser {
                 returnList.add(Document(name, mimeType, id, parentId, true))
             }
 
-            val bottomTableHead = items.findElementByAttValue("name", "wqqwqqwwqyw1", true, true).getElementListByName("table", false).find { it.childTagList.size == 2 }
+            val bottomTableHead = index.findElementByNameAttribute("wqqwqqwwqyw1").getElementListByName("table", false).find { it.childTagList.size == 2 }
             val bottomTable = bottomTableHead?.findElementByName("tbody", false)
             bottomTable?.childTagList?.forEach {
                 if (it.childTagList.size == 1) return@forEach
 
-                val name = it.childTagList.component2().getAllElementsList(true).map { it.content() }.filter { it.isNotEmpty() }.firstOrNull() ?: ""
+                val name = it.childTagList.component2().allElements().map { it.content() }.firstOrNull { it.isNotEmpty() } ?: ""
                 val link: String = it.getElementList(
                     { it.name == "a" && it.getAttributeByName("href").contains("slozka.pl") },
                     true
@@ -511,7 +526,7 @@ object Parser {
     fun getProfileEmails(webResponse: String): List<String> {
         if (webResponse.isEmpty()) return emptyList()
 
-        val cleaner = HtmlCleaner()
+        val cleaner = session.get()
         val returnList = mutableListOf<String>()
 
         return try {
@@ -544,11 +559,10 @@ object Parser {
         if (this.name == "b") {
             return content()
         }
-        getAllElementsList(true).forEach {
-            if (it.name == "b") {
-                return it.content()
-            }
-        }
-        return ""
+        return allElements().find { it.name == "b" }?.content() ?: ""
     }
+
+    // Walks the elements lazily, so lookups for the first match stop there
+    private fun TagNode.allElements(): Sequence<TagNode> =
+        getElementIterator(TagAllCondition(), true).asSequence()
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Attributes of a tag node, kept in insertion order.
+ * <p>Most tags have only a few attributes, so names and values are stored in a single array
+ * and looked up by a linear scan. Beyond {@link #INDEX_THRESHOLD} attributes a name to position
+ * map is added for the lookups. Putting an existing name replaces its value in place, like
+ * {@link LinkedHashMap} does.</p>
+ */
+final class AttributeList {
+
+    /**
+     * Number of attributes above which the names are indexed.
+     */
+    static final int INDEX_THRESHOLD = 8;
+
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * Names at even positions, each followed by its value.
+     */
+    private String[] entries = EMPTY;
+    private int size;
+    private Map<String, Integer> index;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    String getName(int i) {
+        return entries[i << 1];
+    }
+
+    String getValue(int i) {
+        return entries[(i << 1) + 1];
+    }
+
+    /**
+     * @return position of the attribute with exactly the given name, or -1 if there is none
+     */
+    int indexOf(String name) {
+        if (index != null) {
+            Integer position = index.get(name);
+            return position == null ? -1 : position.intValue();
+        }
+        String[] entries = this.entries;
+        int length = size << 1;
+        for (int i = 0; i < length; i += 2) {
+            String entryName = entries[i];
+            if (entryName == name || (entryName != null && entryName.equals(name))) {
+                return i >> 1;
+            }
+        }
+        return -1;
+    }
+
+    String get(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : entries[(i << 1) + 1];
+    }
+
+    boolean containsKey(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    void put(String name, String value) {
+        int i = indexOf(name);
+        if (i >= 0) {
+            entries[(i << 1) + 1] = value;
+            return;
+        }
+        int length = size << 1;
+        if (length == entries.length) {
+            String[] grown = new String[length == 0 ? 4 : length << 1];
+            System.arraycopy(entries, 0, grown, 0, length);
+            entries = grown;
+        }
+        entries[length] = name;
+        entries[length + 1] = value;
+        if (index != null) {
+            index.put(name, size);
+        }
+        size++;
+        if (index == null && size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * @return true if there was an attribute with the given name
+     */
+    boolean remove(String name) {
+        int i = indexOf(name);
+        if (i < 0) {
+            return false;
+        }
+        int from = (i + 1) << 1;
+        System.arraycopy(entries, from, entries, i << 1, (size << 1) - from);
+        size--;
+        entries[size << 1] = null;
+        entries[(size << 1) + 1] = null;
+        if (size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        } else {
+            index = null;
+        }
+        return true;
+    }
+
+    void clear() {
+        entries = EMPTY;
+        size = 0;
+        index = null;
+    }
+
+    void putAll(AttributeList other) {
+        for (int i = 0; i < other.size; i++) {
+            put(other.getName(i), other.getValue(i));
+        }
+    }
+
+    /**
+     * @return a new map with the attributes in their order
+     */
+    LinkedHashMap<String, String> toMap() {
+        LinkedHashMap<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(getName(i), getValue(i));
+        }
+        return map;
+    }
+
+    private void rebuildIndex() {
+        index = new HashMap<String, Integer>();
+        for (int i = 0; i < size; i++) {
+            index.put(getName(i), i);
+        }
+    }
+}
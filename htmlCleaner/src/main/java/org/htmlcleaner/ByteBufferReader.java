@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reader decoding the bytes of a buffer (typically a memory mapped file) on demand,
+ * directly into the tokenizer's working buffer.
+ * <p>For ASCII compatible charsets such as UTF-8 and ISO-8859-2, runs of ASCII bytes,
+ * which is all of the markup in practice, are copied without going through the decoder.
+ * Malformed input is replaced, the same way as {@link java.io.InputStreamReader} does.
+ * The reader supports mark and reset, so no {@link java.io.BufferedReader} is needed on top.</p>
+ */
+class ByteBufferReader extends Reader {
+
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private final boolean asciiCompatible;
+
+    /**
+     * Low surrogate of a pair that didn't fit into the previous read.
+     */
+    private int pendingChar = -1;
+
+    private int markedPosition;
+    private int markedPendingChar = -1;
+
+    ByteBufferReader(ByteBuffer bytes, Charset charset) {
+        this.bytes = bytes;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = isAsciiCompatible(charset);
+        this.markedPosition = bytes.position();
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name();
+        return "UTF-8".equals(name) || "US-ASCII".equals(name) || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int count = 0;
+        if (pendingChar >= 0) {
+            cbuf[off] = (char) pendingChar;
+            pendingChar = -1;
+            count++;
+        }
+
+        while (count < len && bytes.hasRemaining()) {
+            if (asciiCompatible) {
+                int limit = Math.min(bytes.remaining(), len - count);
+                int position = bytes.position();
+                int i = 0;
+                while (i < limit) {
+                    byte b = bytes.get(position + i);
+                    if (b < 0) {
+                        break;
+                    }
+                    cbuf[off + count + i] = (char) b;
+                    i++;
+                }
+                bytes.position(position + i);
+                count += i;
+                if (count == len || !bytes.hasRemaining()) {
+                    break;
+                }
+            }
+
+            //
+            // Non ASCII byte, let the decoder handle the rest of this read
+            //
+            CharBuffer out = CharBuffer.wrap(cbuf, off + count, len - count);
+            CoderResult result = decoder.decode(bytes, out, true);
+            int decoded = out.position() - (off + count);
+            count += decoded;
+            if (result.isOverflow() && decoded == 0) {
+                //
+                // Only a single char left in the target, but the next code point is a surrogate pair
+                //
+                CharBuffer pair = CharBuffer.allocate(2);
+                decoder.decode(bytes, pair, true);
+                cbuf[off + count] = pair.get(0);
+                count++;
+                if (pair.position() > 1) {
+                    pendingChar = pair.get(1);
+                }
+            }
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+
+        return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) {
+        markedPosition = bytes.position();
+        markedPendingChar = pendingChar;
+    }
+
+    @Override
+    public void reset() {
+        bytes.position(markedPosition);
+        pendingChar = markedPendingChar;
+        decoder.reset();
+    }
+
+    @Override
+    public void close() {
+    }
+}
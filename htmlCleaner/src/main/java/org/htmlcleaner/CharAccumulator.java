@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+/**
+ * Unsynchronized character buffer reused by {@link HtmlTokenizer} for the text of every token.
+ * <p>Token text is produced by slicing the buffer once, entities are decoded while slicing,
+ * so no intermediate copies are made.</p>
+ */
+class CharAccumulator {
+
+    private char[] chars;
+    private int length;
+
+    CharAccumulator(int capacity) {
+        this.chars = new char[capacity];
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Drops the content after the specified length.
+     *
+     * @param length
+     */
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    void clear() {
+        length = 0;
+    }
+
+    void append(char ch) {
+        if (length == chars.length) {
+            grow(length + 1);
+        }
+        chars[length++] = ch;
+    }
+
+    void append(char[] buf, int off, int len) {
+        if (length + len > chars.length) {
+            grow(length + len);
+        }
+        System.arraycopy(buf, off, chars, length, len);
+        length += len;
+    }
+
+    /**
+     * @param from
+     * @return content starting at the specified index
+     */
+    String toString(int from) {
+        return new String(chars, from, length - from);
+    }
+
+    /**
+     * @param recognizeUnicodeChars
+     * @return content with entities replaced by actual characters
+     * @see Utils#deserializeEntities(String, boolean)
+     */
+    String toDeserializedString(boolean recognizeUnicodeChars) {
+        return Utils.deserializeEntities(chars, 0, length, recognizeUnicodeChars);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private void grow(int minCapacity) {
+        char[] newChars = new char[Math.max(chars.length * 2, minCapacity)];
+        System.arraycopy(chars, 0, newChars, 0, length);
+        chars = newChars;
+    }
+}
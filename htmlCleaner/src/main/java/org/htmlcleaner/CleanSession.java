@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+
+/**
+ * <p>Cleans documents one after another with the same cleaner, resetting the state of a clean
+ * call instead of allocating it again for every document: the clean time values with their
+ * nesting states and copies of the prune and allow sets, and the working buffer, name table and
+ * token list of the tokenizer.</p>
+ * <p>A session is not thread safe, each thread should use its own, for example kept in a
+ * {@link ThreadLocal}. The working buffer grows with the documents cleaned, but one larger than
+ * 256K chars isn't kept for the next document. Instances are created by
+ * {@link HtmlCleaner#newSession()}.</p>
+ */
+public class CleanSession {
+
+    private final HtmlCleaner cleaner;
+    private final CleanTimeValues cleanTimeValues = new CleanTimeValues();
+
+    CleanSession(HtmlCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    public HtmlCleaner getCleaner() {
+        return cleaner;
+    }
+
+    /**
+     * @param htmlContent
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @see HtmlCleaner#clean(CharSequence)
+     */
+    public TagNode clean(CharSequence htmlContent) {
+        return clean(htmlContent, null);
+    }
+
+    /**
+     * @param htmlContent
+     * @param budget      limits and cancellation of this call, or null for none
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws ParseAbortedException if a limit is exceeded or the budget is cancelled
+     * @see HtmlCleaner#clean(CharSequence, ParseBudget)
+     */
+    public TagNode clean(CharSequence htmlContent, ParseBudget budget) {
+        try {
+            cleanTimeValues.setBudget(budget);
+            return cleaner.cleanContent(htmlContent, cleanTimeValues);
+        } finally {
+            cleanTimeValues.reset();
+        }
+    }
+
+    /**
+     * @param htmlContent
+     * @param conditions
+     * @return for every condition, the first element satisfying it in the tree built from the
+     * content read, or null if there is none.
+     * @see HtmlCleaner#findElements(CharSequence, ITagNodeCondition...)
+     */
+    public TagNode[] findElements(CharSequence htmlContent, ITagNodeCondition... conditions) {
+        return findElements(htmlContent, null, conditions);
+    }
+
+    /**
+     * @param htmlContent
+     * @param budget      limits and cancellation of this call, or null for none
+     * @param conditions
+     * @return for every condition, the first element satisfying it in the tree built from the
+     * content read, or null if there is none.
+     * @throws ParseAbortedException if a limit is exceeded or the budget is cancelled
+     * @see HtmlCleaner#findElements(CharSequence, ParseBudget, ITagNodeCondition...)
+     */
+    public TagNode[] findElements(CharSequence htmlContent, ParseBudget budget, ITagNodeCondition... conditions) {
+        try {
+            cleanTimeValues.setBudget(budget);
+            return cleaner.findElements(htmlContent, conditions, cleanTimeValues);
+        } finally {
+            cleanTimeValues.reset();
+        }
+    }
+}
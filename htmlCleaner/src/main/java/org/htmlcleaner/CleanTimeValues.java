@@ -15,9 +15,11 @@ package org.htmlcleaner;
 import org.htmlcleaner.HtmlCleaner.NestingState;
 import org.htmlcleaner.conditional.ITagNodeCondition;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
@@ -35,15 +37,36 @@ class CleanTimeValues {
     Set allTags = new TreeSet();
     transient Stack<NestingState> nestingStates = new Stack<NestingState>();
 
+    /**
+     * Top of the nesting states, the one all open tags and child breaks are looked up in
+     */
+    transient NestingState nestingState;
+
+    /**
+     * Nesting states popped so far, cleared and ready to be pushed again
+     */
+    transient List<NestingState> spareNestingStates = new ArrayList<NestingState>();
+
     TagNode htmlNode;
     TagNode bodyNode;
     TagNode headNode;
     TagNode rootNode;
 
+    /**
+     * Last token added to the children of its open tag as it came, and so removed from the list of tokens.
+     */
+    BaseToken lastAttachedToken;
+
     Set<ITagNodeCondition> pruneTagSet = new HashSet<ITagNodeCondition>();
     Set<TagNode> pruneNodeSet = new HashSet<TagNode>();
     Set<ITagNodeCondition> allowTagSet;
 
+    /**
+     * The prune and allow sets compiled when the nodes to prune are marked
+     */
+    transient PruneMatcher pruneMatcher;
+    transient PruneMatcher allowMatcher;
+
     /**
      * A stack of namespaces for currently open tags. Every xmlns declaration
      * on a tag adds another namespace to the stack, which is removed when the
@@ -57,4 +80,97 @@ class CleanTimeValues {
      * We use this to check whether any prefixes remain undeclared.
      */
     transient HashMap<String, String> namespaceMap = new HashMap<String, String>();
+
+    /**
+     * Budget of the current clean call, if any, with its limits resolved so that
+     * unlimited values never trigger.
+     */
+    ParseBudget budget;
+    long deadline = Long.MAX_VALUE;
+    int maxTokens = Integer.MAX_VALUE;
+    int maxDepth = Integer.MAX_VALUE;
+
+    /**
+     * Set once a limit of the budget is exceeded; tokenizing stops at the next token.
+     */
+    ParseAbortedException.Reason abortReason;
+
+    /**
+     * Conditions of a targeted clean call, which stops tokenizing once the first element
+     * satisfying each of them is known, with the elements formed since the last check.
+     */
+    ITagNodeCondition[] targetConditions;
+    boolean[] targetsMatched;
+    List<TagNode> formedTags;
+
+    /**
+     * Working buffers larger than this aren't kept for the next document, so a session doesn't
+     * hold on to the memory of the largest document it has ever cleaned.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Buffers of the tokenizer, kept for the next document when the values are reused by a {@link CleanSession}
+     */
+    transient char[] workingBuffer;
+    transient NameTable names;
+    transient TokenList<BaseToken> tokenList;
+
+    void setTargets(ITagNodeCondition[] conditions) {
+        this.targetConditions = conditions;
+        this.targetsMatched = new boolean[conditions.length];
+        if (this.formedTags == null) {
+            this.formedTags = new ArrayList<TagNode>();
+        }
+    }
+
+    /**
+     * Prepares the values for the next document of a session. Values every clean call sets up
+     * on its own are left as they are, the previous tree isn't referenced anymore afterwards.
+     */
+    void reset() {
+        nestingStates.clear();
+        nestingState = null;
+        namespace.clear();
+        namespaceMap.clear();
+        lastAttachedToken = null;
+
+        budget = null;
+        abortReason = null;
+        deadline = Long.MAX_VALUE;
+        maxTokens = Integer.MAX_VALUE;
+        maxDepth = Integer.MAX_VALUE;
+
+        targetConditions = null;
+        targetsMatched = null;
+        if (formedTags != null) {
+            formedTags.clear();
+        }
+
+        if (tokenList != null) {
+            tokenList.clear();
+            tokenList.trim();
+        }
+        if (workingBuffer != null && workingBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            workingBuffer = null;
+        }
+        _headTags.clear();
+        pruneNodeSet.clear();
+        pruneMatcher = null;
+        allowMatcher = null;
+        htmlNode = null;
+        bodyNode = null;
+        headNode = null;
+        rootNode = null;
+    }
+
+    void setBudget(ParseBudget budget) {
+        this.budget = budget;
+        this.abortReason = null;
+        if (budget != null) {
+            this.deadline = budget.getMaxTimeMillis() > 0 ? System.currentTimeMillis() + budget.getMaxTimeMillis() : Long.MAX_VALUE;
+            this.maxTokens = budget.getMaxTokens() > 0 ? budget.getMaxTokens() : Integer.MAX_VALUE;
+            this.maxDepth = budget.getMaxDepth() > 0 ? budget.getMaxDepth() : Integer.MAX_VALUE;
+        }
+    }
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import org.htmlcleaner.conditional.TagNodeNameCondition;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -29,7 +30,7 @@ import java.util.StringTokenizer;
 /**
  * Properties defining cleaner's behaviour
  */
-public class CleanerProperties implements HtmlModificationListener {
+public class CleanerProperties implements HtmlModificationListener, Cloneable {
     // Force consistent cross-platform encoding ( mandatory for reliable server operation)
     public static final String DEFAULT_CHARSET = "UTF-8";
     public static final String BOOL_ATT_SELF = "self";
@@ -83,6 +84,8 @@ public class CleanerProperties implements HtmlModificationListener {
     private String hyphenReplacementInComment;
     // comma separate list of tags pruned.
     private String pruneTags;
+    // skip the content of pruned tags while tokenizing
+    private boolean skipPrunedContent;
     // comma separate list of tags allowed.
     private String allowTags;
 
@@ -100,6 +103,7 @@ public class CleanerProperties implements HtmlModificationListener {
     private Set<ITagNodeCondition> allowTagSet = new HashSet<ITagNodeCondition>();
     private String charset = DEFAULT_CHARSET;
     private boolean transResCharsToNCR;
+    private boolean frozen;
 
     public CleanerProperties() {
         reset();
@@ -121,6 +125,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * @param tagInfoProvider the tagInfoProvider to set
      */
     void setTagInfoProvider(ITagInfoProvider tagInfoProvider) {
+        checkNotFrozen();
         this.tagInfoProvider = tagInfoProvider;
     }
 
@@ -129,6 +134,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setAdvancedXmlEscape(boolean advancedXmlEscape) {
+        checkNotFrozen();
         this.advancedXmlEscape = advancedXmlEscape;
     }
 
@@ -137,6 +143,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setTransResCharsToNCR(boolean transResCharsToNCR) {
+        checkNotFrozen();
         this.transResCharsToNCR = transResCharsToNCR;
     }
 
@@ -156,6 +163,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setUseCdataFor(String useCdataFor) {
+        checkNotFrozen();
         if (useCdataFor != null) {
             this.useCdataFor = useCdataFor;
             this.useCdataForList = Arrays.asList(useCdataFor.toLowerCase().split(","));
@@ -182,6 +190,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * @param translateSpecialEntities
      */
     public void setTranslateSpecialEntities(boolean translateSpecialEntities) {
+        checkNotFrozen();
         this.translateSpecialEntities = translateSpecialEntities;
     }
 
@@ -190,6 +199,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setRecognizeUnicodeChars(boolean recognizeUnicodeChars) {
+        checkNotFrozen();
         this.recognizeUnicodeChars = recognizeUnicodeChars;
     }
 
@@ -198,6 +208,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setOmitUnknownTags(boolean omitUnknownTags) {
+        checkNotFrozen();
         this.omitUnknownTags = omitUnknownTags;
     }
 
@@ -206,6 +217,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setTreatUnknownTagsAsContent(boolean treatUnknownTagsAsContent) {
+        checkNotFrozen();
         this.treatUnknownTagsAsContent = treatUnknownTagsAsContent;
     }
 
@@ -214,6 +226,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setOmitDeprecatedTags(boolean omitDeprecatedTags) {
+        checkNotFrozen();
         this.omitDeprecatedTags = omitDeprecatedTags;
     }
 
@@ -222,6 +235,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setTreatDeprecatedTagsAsContent(boolean treatDeprecatedTagsAsContent) {
+        checkNotFrozen();
         this.treatDeprecatedTagsAsContent = treatDeprecatedTagsAsContent;
     }
 
@@ -230,6 +244,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setOmitComments(boolean omitComments) {
+        checkNotFrozen();
         this.omitComments = omitComments;
     }
 
@@ -238,6 +253,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setOmitXmlDeclaration(boolean omitXmlDeclaration) {
+        checkNotFrozen();
         this.omitXmlDeclaration = omitXmlDeclaration ? OptionalOutput.omit : OptionalOutput.alwaysOutput;
     }
 
@@ -249,6 +265,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setOmitDoctypeDeclaration(boolean omitDoctypeDeclaration) {
+        checkNotFrozen();
         this.omitDoctypeDeclaration = omitDoctypeDeclaration ? OptionalOutput.omit : OptionalOutput.alwaysOutput;
     }
 
@@ -257,6 +274,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setOmitHtmlEnvelope(boolean omitHtmlEnvelope) {
+        checkNotFrozen();
         this.omitHtmlEnvelope = omitHtmlEnvelope ? OptionalOutput.omit : OptionalOutput.alwaysOutput;
     }
 
@@ -265,6 +283,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setUseEmptyElementTags(boolean useEmptyElementTags) {
+        checkNotFrozen();
         this.useEmptyElementTags = useEmptyElementTags;
     }
 
@@ -273,6 +292,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setAllowMultiWordAttributes(boolean allowMultiWordAttributes) {
+        checkNotFrozen();
         this.allowMultiWordAttributes = allowMultiWordAttributes;
     }
 
@@ -281,6 +301,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setAllowHtmlInsideAttributes(boolean allowHtmlInsideAttributes) {
+        checkNotFrozen();
         this.allowHtmlInsideAttributes = allowHtmlInsideAttributes;
     }
 
@@ -289,6 +310,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setIgnoreQuestAndExclam(boolean ignoreQuestAndExclam) {
+        checkNotFrozen();
         this.ignoreQuestAndExclam = ignoreQuestAndExclam;
     }
 
@@ -297,6 +319,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setNamespacesAware(boolean namespacesAware) {
+        checkNotFrozen();
         this.namespacesAware = namespacesAware;
     }
 
@@ -305,6 +328,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setAddNewlineToHeadAndBody(boolean addNewlineToHeadAndBody) {
+        checkNotFrozen();
         this.addNewlineToHeadAndBody = addNewlineToHeadAndBody;
     }
 
@@ -313,6 +337,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setKeepWhitespaceAndCommentsInHead(boolean keepHeadWhitespace) {
+        checkNotFrozen();
         this.keepWhitespaceAndCommentsInHead = keepHeadWhitespace;
     }
 
@@ -321,6 +346,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setHyphenReplacementInComment(String hyphenReplacementInComment) {
+        checkNotFrozen();
         this.hyphenReplacementInComment = hyphenReplacementInComment;
     }
 
@@ -335,16 +361,35 @@ public class CleanerProperties implements HtmlModificationListener {
      * @param pruneTags
      */
     public void setPruneTags(String pruneTags) {
+        checkNotFrozen();
         this.pruneTags = pruneTags;
         this.resetPruneTagSet();
         this.addTagNameConditions(this.pruneTagSet, pruneTags);
     }
 
+    public boolean isSkipPrunedContent() {
+        return skipPrunedContent;
+    }
+
+    /**
+     * Makes the tokenizer skip the content of tags pruned by name whose content is kept as CDATA,
+     * script and style by default, instead of building their subtrees only to remove them
+     * afterwards. Other tags take part in balancing, so they are still read as usual and pruned
+     * from the finished tree, and the result is the same as without this option.
+     *
+     * @param skipPrunedContent
+     */
+    public void setSkipPrunedContent(boolean skipPrunedContent) {
+        checkNotFrozen();
+        this.skipPrunedContent = skipPrunedContent;
+    }
+
     public boolean isOmitCdataOutsideScriptAndStyle() {
         return omitCdataOutsideScriptAndStyle;
     }
 
     public void setOmitCdataOutsideScriptAndStyle(boolean value) {
+        checkNotFrozen();
         omitCdataOutsideScriptAndStyle = value;
     }
 
@@ -353,6 +398,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setDeserializeEntities(boolean deserializeEntities) {
+        checkNotFrozen();
         this.deserializeEntities = deserializeEntities;
     }
 
@@ -372,6 +418,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * @param version Number 4 for html4 or 5 for html5
      */
     public void setHtmlVersion(int version) {
+        checkNotFrozen();
         this.htmlVersion = version;
         if (version == 4)
             this.setTagInfoProvider(Html4TagProvider.INSTANCE);
@@ -384,6 +431,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setTrimAttributeValues(boolean trimAttributeValues) {
+        checkNotFrozen();
         this.trimAttributeValues = trimAttributeValues;
     }
 
@@ -393,6 +441,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * @param condition
      */
     public void addPruneTagNodeCondition(ITagNodeCondition condition) {
+        checkNotFrozen();
         pruneTagSet.add(condition);
     }
 
@@ -405,6 +454,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setAllowTags(String allowTags) {
+        checkNotFrozen();
         this.allowTags = allowTags;
         this.setAllowTagSet(allowTags);
     }
@@ -414,6 +464,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setTransSpecialEntitiesToNCR(boolean transSpecialEntitiesToNCR) {
+        checkNotFrozen();
         this.transSpecialEntitiesToNCR = transSpecialEntitiesToNCR;
     }
 
@@ -450,6 +501,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * @param charset the charset to set
      */
     public void setCharset(String charset) {
+        checkNotFrozen();
         this.charset = charset;
     }
 
@@ -458,6 +510,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setBooleanAttributeValues(String booleanAttributeValues) {
+        checkNotFrozen();
         if (BOOL_ATT_SELF.equalsIgnoreCase(booleanAttributeValues) ||
                 BOOL_ATT_EMPTY.equalsIgnoreCase(booleanAttributeValues) ||
                 BOOL_ATT_TRUE.equalsIgnoreCase(booleanAttributeValues)) {
@@ -489,6 +542,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * addNewlineToHeadAndBody = true;
      * hyphenReplacementInComment = "=";
      * pruneTags = null;
+     * skipPrunedContent = false;
      * allowTags = null;
      * booleanAttributeValues = BOOL_ATT_SELF;
      * collapseNullHtml = CollapseHtml.none
@@ -497,6 +551,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * tagInfoProvider = HTML5TagProvider.INSTANCE
      */
     public void reset() {
+        checkNotFrozen();
         advancedXmlEscape = true;
         setUseCdataFor("script,style");
         translateSpecialEntities = true;
@@ -518,6 +573,7 @@ public class CleanerProperties implements HtmlModificationListener {
         keepWhitespaceAndCommentsInHead = true;
         hyphenReplacementInComment = "=";
         setPruneTags(null);
+        skipPrunedContent = false;
         setAllowTags(null);
         booleanAttributeValues = BOOL_ATT_SELF;
         charset = "UTF-8";
@@ -548,6 +604,7 @@ public class CleanerProperties implements HtmlModificationListener {
     }
 
     public void setCleanerTransformations(CleanerTransformations cleanerTransformations) {
+        checkNotFrozen();
         if (cleanerTransformations == null) {
             this.cleanerTransformations.clear();
         } else {
@@ -562,6 +619,7 @@ public class CleanerProperties implements HtmlModificationListener {
      * @param listener -- listener object to be notified of the changes.
      */
     public void addHtmlModificationListener(HtmlModificationListener listener) {
+        checkNotFrozen();
         htmlModificationListeners.add(listener);
     }
 
@@ -590,6 +648,48 @@ public class CleanerProperties implements HtmlModificationListener {
         }
     }
 
+    /**
+     * Makes these properties, their transformations and prune and allow sets immutable, so that
+     * a single cleaner using them can be shared by threads cleaning concurrently. Setters throw
+     * {@link UnsupportedOperationException} afterwards, different settings need new properties.
+     *
+     * @return these properties
+     */
+    public CleanerProperties freeze() {
+        if (!frozen) {
+            frozen = true;
+            pruneTagSet = Collections.unmodifiableSet(pruneTagSet);
+            allowTagSet = Collections.unmodifiableSet(allowTagSet);
+            htmlModificationListeners = Collections.unmodifiableList(htmlModificationListeners);
+            cleanerTransformations.freeze();
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return Frozen copy of these frozen properties that uses the given tag info provider. The
+     * copy shares everything else, which is safe as none of it changes anymore.
+     */
+    CleanerProperties withTagInfoProvider(ITagInfoProvider tagInfoProvider) {
+        try {
+            CleanerProperties copy = (CleanerProperties) clone();
+            copy.tagInfoProvider = tagInfoProvider;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("cannot modify frozen properties");
+        }
+    }
+
     /**
      * Get the prefix to use to try to make valid attribute names
      *
@@ -606,6 +706,7 @@ public class CleanerProperties implements HtmlModificationListener {
      */
     public void setInvalidXmlAttributeNamePrefix(
             String invalidXmlAttributePrefix) {
+        checkNotFrozen();
         this.invalidAttributeNamePrefix = invalidXmlAttributePrefix;
     }
 
@@ -626,6 +727,7 @@ public class CleanerProperties implements HtmlModificationListener {
      */
     public void setAllowInvalidAttributeNames(
             boolean allowInvalidAttributeNames) {
+        checkNotFrozen();
         this.allowInvalidAttributeNames = allowInvalidAttributeNames;
     }
 }
@@ -24,6 +24,7 @@ public class CleanerTransformations {
 
     private Map mappings = new HashMap();
     private TagTransformation globalTransformations = new TagTransformation();
+    private boolean frozen;
 
     public CleanerTransformations() {
 
@@ -42,12 +43,14 @@ public class CleanerTransformations {
      * @param tagTransformation
      */
     public void addTransformation(TagTransformation tagTransformation) {
+        checkNotFrozen();
         if (tagTransformation != null) {
             mappings.put(tagTransformation.getSourceTag(), tagTransformation);
         }
     }
 
     public void addGlobalTransformation(AttributeTransformation attributeTransformation) {
+        checkNotFrozen();
         globalTransformations.addAttributePatternTransformation(attributeTransformation);
     }
 
@@ -60,6 +63,7 @@ public class CleanerTransformations {
     }
 
     public void updateTagTransformations(String key, String value) {
+        checkNotFrozen();
         int index = key.indexOf('.');
 
         // new tag transformation case (tagname[=destname[,preserveatts]])
@@ -125,6 +129,26 @@ public class CleanerTransformations {
      *
      */
     public void clear() {
+        checkNotFrozen();
         this.mappings.clear();
     }
+
+    /**
+     * Makes the collection and its tag transformations immutable.
+     *
+     * @see CleanerProperties#freeze()
+     */
+    void freeze() {
+        frozen = true;
+        for (Object tagTransformation : mappings.values()) {
+            ((TagTransformation) tagTransformation).freeze();
+        }
+        globalTransformations.freeze();
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("cannot modify frozen transformations");
+        }
+    }
 }
\ No newline at end of file
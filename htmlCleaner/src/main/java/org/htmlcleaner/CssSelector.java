@@ -0,0 +1,641 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.htmlcleaner.conditional.TagNodeAttExistsCondition;
+import org.htmlcleaner.conditional.TagNodeAttValueCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>CSS selector compiled once and matched against any number of trees. Supported are:</p>
+ * <ul>
+ *      <li>type selectors and <code>*</code>, ids <code>#id</code> and classes <code>.class</code></li>
+ *      <li>attribute selectors <code>[att]</code>, <code>[att=value]</code>, <code>[att~=value]</code>,
+ *      <code>[att|=value]</code>, <code>[att^=value]</code>, <code>[att$=value]</code> and
+ *      <code>[att*=value]</code></li>
+ *      <li><code>:first-child</code>, <code>:last-child</code>, <code>:only-child</code>,
+ *      <code>:nth-child(an+b)</code> and <code>:nth-last-child(an+b)</code></li>
+ *      <li>descendant, child (<code>&gt;</code>), next sibling (<code>+</code>) and subsequent sibling
+ *      (<code>~</code>) combinators, and selector lists separated by commas</li>
+ * </ul>
+ * <p>Tag and attribute names are matched ignoring case, attribute values, ids and classes case
+ * sensitively. A selector is matched from its rightmost part to the left, following parent and
+ * sibling links, and can be used as a condition for the element methods of {@link TagNode}.</p>
+ * <p>{@link #select(TagNode)} looks for elements under the node given and matches the selector
+ * inside that subtree only, the same way a chain of <code>findElement</code> calls does: with
+ * <code>"tbody tbody"</code> from a form, both tbody elements have to be in the form. When the node
+ * is the root of a {@link DocumentIndex}, the index gives the candidates for the rightmost part.</p>
+ * <p>Instances are immutable and can be shared between threads.</p>
+ */
+public class CssSelector implements ITagNodeCondition {
+
+    private static final int DESCENDANT = 0;
+    private static final int CHILD = 1;
+    private static final int NEXT_SIBLING = 2;
+    private static final int SUBSEQUENT_SIBLING = 3;
+
+    private final String selector;
+    private final Complex[] alternatives;
+
+    /**
+     * Compiles the selector.
+     *
+     * @param selector
+     * @throws HtmlCleanerException if the selector is not valid or uses unsupported features
+     */
+    public CssSelector(String selector) {
+        if (selector == null) {
+            throw new HtmlCleanerException("Selector must not be null");
+        }
+        this.selector = selector;
+        this.alternatives = new SelectorParser(selector).parseList();
+    }
+
+    /**
+     * @return true if the node matches the selector, considering all its ancestors.
+     */
+    public boolean satisfy(TagNode tagNode) {
+        return tagNode != null && matches(tagNode, null);
+    }
+
+    /**
+     * @param root
+     * @return List of elements under the root matching the selector, in document order.
+     */
+    public List<TagNode> select(TagNode root) {
+        List<TagNode> result = new ArrayList<TagNode>();
+        List<TagNode> candidates = indexedCandidates(root);
+        if (candidates != null) {
+            Complex complex = alternatives[0];
+            for (int i = 0; i < candidates.size(); i++) {
+                TagNode candidate = candidates.get(i);
+                if (candidate != root && complex.matches(complex.last(), candidate, root)) {
+                    result.add(candidate);
+                }
+            }
+            return result;
+        }
+        TagNodeIterator iterator = new TagNodeIterator(root, new ScopedCondition(root), true);
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    /**
+     * @param root
+     * @return First element under the root matching the selector, or null if there is none.
+     */
+    public TagNode selectFirst(TagNode root) {
+        List<TagNode> candidates = indexedCandidates(root);
+        if (candidates != null) {
+            Complex complex = alternatives[0];
+            for (int i = 0; i < candidates.size(); i++) {
+                TagNode candidate = candidates.get(i);
+                if (candidate != root && complex.matches(complex.last(), candidate, root)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+        TagNodeIterator iterator = new TagNodeIterator(root, new ScopedCondition(root), true);
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public String toString() {
+        return selector;
+    }
+
+    /**
+     * @return the elements the index has for the rightmost part of the selector, or null if there
+     * is no index over the root or the selector has nothing to look up.
+     */
+    private List<TagNode> indexedCandidates(TagNode root) {
+        DocumentIndex index = root.index;
+        if (index == null || index.getRoot() != root || alternatives.length != 1) {
+            return null;
+        }
+        Compound compound = alternatives[0].compounds[alternatives[0].last()];
+        if (compound.id != null) {
+            return index.getElementListById(compound.id);
+        } else if (compound.className != null) {
+            return index.getElementListByClass(compound.className);
+        } else if (compound.name != null) {
+            return index.getElementListByName(compound.name);
+        }
+        return null;
+    }
+
+    private boolean matches(TagNode node, TagNode scope) {
+        for (Complex complex : alternatives) {
+            if (complex.matches(complex.last(), node, scope)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches nodes strictly inside the subtree of the scope node.
+     */
+    private class ScopedCondition implements ITagNodeCondition {
+        private final TagNode scope;
+
+        ScopedCondition(TagNode scope) {
+            this.scope = scope;
+        }
+
+        public boolean satisfy(TagNode tagNode) {
+            return matches(tagNode, scope);
+        }
+    }
+
+    /**
+     * Compound selectors joined by combinators.
+     */
+    private static final class Complex {
+        final Compound[] compounds;
+        /**
+         * Combinator between each compound and the previous one, the first one is unused.
+         */
+        final int[] combinators;
+
+        Complex(Compound[] compounds, int[] combinators) {
+            this.compounds = compounds;
+            this.combinators = combinators;
+        }
+
+        int last() {
+            return compounds.length - 1;
+        }
+
+        /**
+         * Matches the compounds up to the specified one against the node and, following the
+         * combinators, against its ancestors and preceding siblings inside the scope.
+         */
+        boolean matches(int i, TagNode node, TagNode scope) {
+            if (!compounds[i].satisfy(node)) {
+                return false;
+            }
+            if (i == 0) {
+                return true;
+            }
+            switch (combinators[i]) {
+                case CHILD: {
+                    TagNode parent = node.getParent();
+                    return parent != null && parent != scope && matches(i - 1, parent, scope);
+                }
+                case DESCENDANT:
+                    for (TagNode parent = node.getParent(); parent != null && parent != scope; parent = parent.getParent()) {
+                        if (matches(i - 1, parent, scope)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case NEXT_SIBLING: {
+                    TagNode sibling = node.getPreviousSiblingTag();
+                    return sibling != null && matches(i - 1, sibling, scope);
+                }
+                default:
+                    for (TagNode sibling = node.getPreviousSiblingTag(); sibling != null; sibling = sibling.getPreviousSiblingTag()) {
+                        if (matches(i - 1, sibling, scope)) {
+                            return true;
+                        }
+                    }
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Simple selectors all applying to one element, with the parts usable as index keys.
+     */
+    private static final class Compound {
+        final ITagNodeCondition[] conditions;
+        final String name;
+        final String id;
+        final String className;
+
+        Compound(ITagNodeCondition[] conditions, String name, String id, String className) {
+            this.conditions = conditions;
+            this.name = name;
+            this.id = id;
+            this.className = className;
+        }
+
+        boolean satisfy(TagNode node) {
+            for (ITagNodeCondition condition : conditions) {
+                if (!condition.satisfy(node)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean isSpace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\f' || ch == '\r';
+    }
+
+    /**
+     * @return true if the value is one of the whitespace separated words of the list
+     */
+    private static boolean containsWord(String list, String value) {
+        int length = value.length();
+        if (list == null || length == 0) {
+            return false;
+        }
+        int from = 0;
+        int index;
+        while ((index = list.indexOf(value, from)) >= 0) {
+            int end = index + length;
+            if ((index == 0 || isSpace(list.charAt(index - 1))) && (end == list.length() || isSpace(list.charAt(end)))) {
+                return true;
+            }
+            from = index + 1;
+        }
+        return false;
+    }
+
+    private static final class ClassCondition implements ITagNodeCondition {
+        private final String className;
+
+        ClassCondition(String className) {
+            this.className = className;
+        }
+
+        public boolean satisfy(TagNode tagNode) {
+            return containsWord(tagNode.getAttributeByName("class"), className);
+        }
+    }
+
+    private static final class AttributeCondition implements ITagNodeCondition {
+        private final String attName;
+        private final char operator;
+        private final String attValue;
+
+        AttributeCondition(String attName, char operator, String attValue) {
+            this.attName = attName;
+            this.operator = operator;
+            this.attValue = attValue;
+        }
+
+        public boolean satisfy(TagNode tagNode) {
+            String value = tagNode.getAttributeByName(attName);
+            if (value == null) {
+                return false;
+            }
+            switch (operator) {
+                case '~':
+                    return containsWord(value, attValue);
+                case '|':
+                    return value.equals(attValue) || (value.startsWith(attValue) && value.length() > attValue.length()
+                            && value.charAt(attValue.length()) == '-');
+                case '^':
+                    return attValue.length() > 0 && value.startsWith(attValue);
+                case '$':
+                    return attValue.length() > 0 && value.endsWith(attValue);
+                default:
+                    return attValue.length() > 0 && value.contains(attValue);
+            }
+        }
+    }
+
+    /**
+     * Matches elements at positions a*n+b among the element children of their parent, for some
+     * n >= 0, counting from one, from the start or from the end.
+     */
+    private static final class NthChildCondition implements ITagNodeCondition {
+        private final int a;
+        private final int b;
+        private final boolean fromEnd;
+
+        NthChildCondition(int a, int b, boolean fromEnd) {
+            this.a = a;
+            this.b = b;
+            this.fromEnd = fromEnd;
+        }
+
+        public boolean satisfy(TagNode tagNode) {
+            int position;
+            TagNode parent = tagNode.getParent();
+            if (parent == null) {
+                position = 1;
+            } else {
+                int index = tagNode.getChildTagPosition();
+                if (index < 0) {
+                    return false;
+                }
+                position = fromEnd ? parent.getChildTagCount() - index : index + 1;
+            }
+            int offset = position - b;
+            if (a == 0) {
+                return offset == 0;
+            }
+            return offset % a == 0 && offset / a >= 0;
+        }
+    }
+
+    private static final class OnlyChildCondition implements ITagNodeCondition {
+        public boolean satisfy(TagNode tagNode) {
+            TagNode parent = tagNode.getParent();
+            return parent == null || (tagNode.getChildTagPosition() == 0 && parent.getChildTagCount() == 1);
+        }
+    }
+
+    private static final class SelectorParser {
+        private final String text;
+        private int pos;
+
+        SelectorParser(String text) {
+            this.text = text;
+        }
+
+        Complex[] parseList() {
+            List<Complex> list = new ArrayList<Complex>();
+            skipSpaces();
+            while (true) {
+                list.add(parseComplex());
+                skipSpaces();
+                if (pos == text.length()) {
+                    break;
+                }
+                expect(',');
+                skipSpaces();
+            }
+            return list.toArray(new Complex[list.size()]);
+        }
+
+        private Complex parseComplex() {
+            List<Compound> compounds = new ArrayList<Compound>();
+            List<Integer> combinators = new ArrayList<Integer>();
+            compounds.add(parseCompound());
+            combinators.add(DESCENDANT);
+            while (true) {
+                boolean spaces = skipSpaces();
+                if (pos == text.length() || text.charAt(pos) == ',') {
+                    break;
+                }
+                char ch = text.charAt(pos);
+                if (ch == '>' || ch == '+' || ch == '~') {
+                    combinators.add(ch == '>' ? CHILD : ch == '+' ? NEXT_SIBLING : SUBSEQUENT_SIBLING);
+                    pos++;
+                    skipSpaces();
+                } else if (spaces) {
+                    combinators.add(DESCENDANT);
+                } else {
+                    throw error("Unexpected character '" + ch + "'");
+                }
+                compounds.add(parseCompound());
+            }
+            int[] combinatorArray = new int[combinators.size()];
+            for (int i = 0; i < combinatorArray.length; i++) {
+                combinatorArray[i] = combinators.get(i);
+            }
+            return new Complex(compounds.toArray(new Compound[compounds.size()]), combinatorArray);
+        }
+
+        private Compound parseCompound() {
+            List<ITagNodeCondition> conditions = new ArrayList<ITagNodeCondition>();
+            String name = null;
+            String id = null;
+            String className = null;
+            int start = pos;
+            if (pos < text.length() && text.charAt(pos) == '*') {
+                pos++;
+            } else if (isNameStart()) {
+                name = parseName();
+                conditions.add(new TagNodeNameCondition(name));
+            }
+            while (pos < text.length()) {
+                char ch = text.charAt(pos);
+                if (ch == '#') {
+                    pos++;
+                    String value = parseName();
+                    if (id == null) {
+                        id = value;
+                    }
+                    conditions.add(new TagNodeAttValueCondition("id", value, true));
+                } else if (ch == '.') {
+                    pos++;
+                    String value = parseName();
+                    if (className == null) {
+                        className = value;
+                    }
+                    conditions.add(new ClassCondition(value));
+                } else if (ch == '[') {
+                    pos++;
+                    conditions.add(parseAttribute());
+                } else if (ch == ':') {
+                    pos++;
+                    conditions.add(parsePseudoClass());
+                } else {
+                    break;
+                }
+            }
+            if (pos == start) {
+                throw error(pos == text.length() ? "Selector expected" : "Unexpected character '" + text.charAt(pos) + "'");
+            }
+            return new Compound(conditions.toArray(new ITagNodeCondition[conditions.size()]), name, id, className);
+        }
+
+        private ITagNodeCondition parseAttribute() {
+            skipSpaces();
+            String attName = parseName();
+            skipSpaces();
+            if (pos < text.length() && text.charAt(pos) == ']') {
+                pos++;
+                return new TagNodeAttExistsCondition(attName);
+            }
+            char operator = pos < text.length() ? text.charAt(pos) : 0;
+            if (operator == '=') {
+                pos++;
+            } else if (operator == '~' || operator == '|' || operator == '^' || operator == '$' || operator == '*') {
+                pos++;
+                expect('=');
+            } else {
+                throw error("Attribute operator expected");
+            }
+            skipSpaces();
+            String value;
+            if (pos < text.length() && (text.charAt(pos) == '"' || text.charAt(pos) == '\'')) {
+                value = parseString();
+            } else {
+                value = parseName();
+            }
+            skipSpaces();
+            expect(']');
+            if (operator == '=') {
+                return new TagNodeAttValueCondition(attName, value, true);
+            }
+            return new AttributeCondition(attName, operator, value);
+        }
+
+        private ITagNodeCondition parsePseudoClass() {
+            String name = parseName().toLowerCase();
+            if ("first-child".equals(name)) {
+                return new NthChildCondition(0, 1, false);
+            } else if ("last-child".equals(name)) {
+                return new NthChildCondition(0, 1, true);
+            } else if ("only-child".equals(name)) {
+                return new OnlyChildCondition();
+            } else if ("nth-child".equals(name) || "nth-last-child".equals(name)) {
+                expect('(');
+                int end = text.indexOf(')', pos);
+                if (end < 0) {
+                    throw error("')' expected");
+                }
+                int[] nth = parseNth(text.substring(pos, end));
+                pos = end + 1;
+                return new NthChildCondition(nth[0], nth[1], "nth-last-child".equals(name));
+            }
+            throw error("Unsupported pseudo-class ':" + name + "'");
+        }
+
+        private int[] parseNth(String argument) {
+            StringBuilder compact = new StringBuilder();
+            for (int i = 0; i < argument.length(); i++) {
+                char ch = argument.charAt(i);
+                if (!isSpace(ch)) {
+                    compact.append(Character.toLowerCase(ch));
+                }
+            }
+            String nth = compact.toString();
+            if ("odd".equals(nth)) {
+                return new int[]{2, 1};
+            } else if ("even".equals(nth)) {
+                return new int[]{2, 0};
+            }
+            try {
+                int n = nth.indexOf('n');
+                if (n < 0) {
+                    return new int[]{0, parseInteger(nth)};
+                }
+                String a = nth.substring(0, n);
+                String b = nth.substring(n + 1);
+                return new int[]{
+                        a.length() == 0 || "+".equals(a) ? 1 : "-".equals(a) ? -1 : parseInteger(a),
+                        b.length() == 0 ? 0 : parseInteger(b)};
+            } catch (NumberFormatException e) {
+                throw error("Invalid argument '" + argument + "'");
+            }
+        }
+
+        private int parseInteger(String value) {
+            return Integer.parseInt(value.startsWith("+") ? value.substring(1) : value);
+        }
+
+        private boolean isNameStart() {
+            if (pos == text.length()) {
+                return false;
+            }
+            char ch = text.charAt(pos);
+            return isNameChar(ch) || ch == '\\';
+        }
+
+        private static boolean isNameChar(char ch) {
+            return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+                    || ch == '-' || ch == '_' || ch >= 128;
+        }
+
+        private String parseName() {
+            StringBuilder name = new StringBuilder();
+            while (pos < text.length()) {
+                char ch = text.charAt(pos);
+                if (ch == '\\') {
+                    pos++;
+                    name.append(parseEscape());
+                } else if (isNameChar(ch)) {
+                    name.append(ch);
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            if (name.length() == 0) {
+                throw error("Name expected");
+            }
+            return name.toString();
+        }
+
+        private String parseString() {
+            char quote = text.charAt(pos++);
+            StringBuilder value = new StringBuilder();
+            while (pos < text.length()) {
+                char ch = text.charAt(pos);
+                if (ch == quote) {
+                    pos++;
+                    return value.toString();
+                } else if (ch == '\\') {
+                    pos++;
+                    value.append(parseEscape());
+                } else {
+                    value.append(ch);
+                    pos++;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        /**
+         * Parses the part of an escape after the backslash: up to six hexadecimal digits
+         * optionally followed by a space, or any other single character.
+         */
+        private String parseEscape() {
+            if (pos == text.length()) {
+                throw error("Unterminated escape");
+            }
+            int start = pos;
+            while (pos < text.length() && pos - start < 6 && Character.digit(text.charAt(pos), 16) >= 0) {
+                pos++;
+            }
+            if (pos == start) {
+                return String.valueOf(text.charAt(pos++));
+            }
+            int codePoint = Integer.parseInt(text.substring(start, pos), 16);
+            if (pos < text.length() && isSpace(text.charAt(pos))) {
+                pos++;
+            }
+            if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                codePoint = 0xFFFD;
+            }
+            return new String(Character.toChars(codePoint));
+        }
+
+        private boolean skipSpaces() {
+            int start = pos;
+            while (pos < text.length() && isSpace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos > start;
+        }
+
+        private void expect(char ch) {
+            if (pos == text.length() || text.charAt(pos) != ch) {
+                throw error("'" + ch + "' expected");
+            }
+            pos++;
+        }
+
+        private HtmlCleanerException error(String message) {
+            return new HtmlCleanerException(message + " at position " + pos + " in selector \"" + text + "\"");
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.htmlcleaner.conditional.TagAllCondition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Index of the elements of a tree by id, name attribute, tag name and class, built in one pass
+ * over the tree. Every lookup returns the elements in document order, the root included, and
+ * gives the same elements as the corresponding condition checked over the whole tree: ids, name
+ * attributes and classes are matched case sensitively, tag names ignoring case.</p>
+ * <p>Adding, removing or replacing children and changing attributes through the methods of
+ * {@link TagNode} invalidates the index, which is then built again on the next lookup. Changes
+ * made directly to the list returned by {@link TagNode#getAllChildren()} are not noticed,
+ * {@link #invalidate()} has to be called for them. An element belongs to the index built over it
+ * last; an index losing its elements to another one is invalidated as well.</p>
+ * <p>An index is not thread safe.</p>
+ */
+public class DocumentIndex {
+
+    private final TagNode root;
+    private final Map<String, List<TagNode>> byId = new HashMap<String, List<TagNode>>();
+    private final Map<String, List<TagNode>> byNameAttribute = new HashMap<String, List<TagNode>>();
+    private final Map<String, List<TagNode>> byName = new HashMap<String, List<TagNode>>();
+    private final Map<String, List<TagNode>> byClass = new HashMap<String, List<TagNode>>();
+    private boolean valid;
+
+    public DocumentIndex(TagNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("Root node must not be null");
+        }
+        this.root = root;
+        build();
+    }
+
+    public TagNode getRoot() {
+        return root;
+    }
+
+    /**
+     * @return false if the tree changed since the index was built
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Marks the index as out of date, so that it is built again on the next lookup.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * @param id
+     * @return List of elements having the specified id.
+     */
+    public List<TagNode> getElementListById(String id) {
+        return lookup(byId, id);
+    }
+
+    /**
+     * @param id
+     * @return First element having the specified id, or null if there is none.
+     */
+    public TagNode findElementById(String id) {
+        return first(getElementListById(id));
+    }
+
+    /**
+     * @param name
+     * @return List of elements having the specified value of the name attribute.
+     */
+    public List<TagNode> getElementListByNameAttribute(String name) {
+        return lookup(byNameAttribute, name);
+    }
+
+    /**
+     * @param name
+     * @return First element having the specified value of the name attribute, or null if there
+     * is none.
+     */
+    public TagNode findElementByNameAttribute(String name) {
+        return first(getElementListByNameAttribute(name));
+    }
+
+    /**
+     * @param findName
+     * @return List of elements with the specified tag name.
+     */
+    public List<TagNode> getElementListByName(String findName) {
+        return lookup(byName, findName == null ? null : foldCase(findName));
+    }
+
+    /**
+     * @param findName
+     * @return First element with the specified tag name, or null if there is none.
+     */
+    public TagNode findElementByName(String findName) {
+        return first(getElementListByName(findName));
+    }
+
+    /**
+     * @param className
+     * @return List of elements having the specified class among the classes in their class
+     * attribute.
+     */
+    public List<TagNode> getElementListByClass(String className) {
+        return lookup(byClass, className);
+    }
+
+    /**
+     * @param className
+     * @return First element having the specified class, or null if there is none.
+     */
+    public TagNode findElementByClass(String className) {
+        return first(getElementListByClass(className));
+    }
+
+    private List<TagNode> lookup(Map<String, List<TagNode>> map, String key) {
+        if (!valid) {
+            build();
+        }
+        List<TagNode> list = key == null ? null : map.get(key);
+        return list == null ? Collections.<TagNode>emptyList() : Collections.unmodifiableList(list);
+    }
+
+    private static TagNode first(List<TagNode> list) {
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    private void build() {
+        byId.clear();
+        byNameAttribute.clear();
+        byName.clear();
+        byClass.clear();
+        add(root);
+        Iterator<TagNode> iterator = new TagNodeIterator(root, new TagAllCondition(), true);
+        while (iterator.hasNext()) {
+            add(iterator.next());
+        }
+        valid = true;
+    }
+
+    private void add(TagNode node) {
+        if (node.index != null && node.index != this) {
+            node.index.invalidate();
+        }
+        node.index = this;
+        String name = node.getName();
+        if (name != null) {
+            put(byName, foldCase(name), node);
+        }
+        if (!node.hasAttributes()) {
+            return;
+        }
+        String id = node.getAttributeByName("id");
+        if (id != null) {
+            put(byId, id, node);
+        }
+        String nameAttribute = node.getAttributeByName("name");
+        if (nameAttribute != null) {
+            put(byNameAttribute, nameAttribute, node);
+        }
+        String classes = node.getAttributeByName("class");
+        if (classes != null) {
+            int length = classes.length();
+            int start = 0;
+            while (start < length) {
+                while (start < length && isSpace(classes.charAt(start))) {
+                    start++;
+                }
+                int end = start;
+                while (end < length && !isSpace(classes.charAt(end))) {
+                    end++;
+                }
+                if (end > start) {
+                    List<TagNode> list = put(byClass, classes.substring(start, end), node);
+                    //
+                    // A class repeated in the attribute adds the element only once
+                    //
+                    if (list.size() > 1 && list.get(list.size() - 2) == node) {
+                        list.remove(list.size() - 1);
+                    }
+                }
+                start = end;
+            }
+        }
+    }
+
+    private static List<TagNode> put(Map<String, List<TagNode>> map, String key, TagNode node) {
+        List<TagNode> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<TagNode>(1);
+            map.put(key, list);
+        }
+        list.add(node);
+        return list;
+    }
+
+    private static boolean isSpace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\f' || ch == '\r';
+    }
+
+    /**
+     * Folds the case of the name so that two names are equal ignoring case, as by
+     * {@link String#equalsIgnoreCase(String)}, exactly when their folded forms are equal.
+     */
+    static String foldCase(String name) {
+        int length = name.length();
+        int i = 0;
+        while (i < length) {
+            char ch = name.charAt(i);
+            if (ch >= 128 || (ch >= 'A' && ch <= 'Z')) {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            return name;
+        }
+        char[] folded = name.toCharArray();
+        for (; i < length; i++) {
+            folded[i] = Character.toLowerCase(Character.toUpperCase(folded[i]));
+        }
+        return new String(folded);
+    }
+}
@@ -22,10 +22,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -55,7 +64,8 @@ import java.util.Stack;
  * // Clean HTML taken from simple string, file, URL, input stream,
  * // input source or reader. Result is root node of created
  * // tree-like structure. Single cleaner instance may be safely used
- * // multiple times.
+ * // multiple times, and concurrently by several threads after
+ * // its properties are frozen with props.freeze().
  * TagNode node = cleaner.clean(...);
  * <p>
  * // optionally find parts of the DOM or modify some nodes
@@ -87,10 +97,14 @@ public class HtmlCleaner {
      */
     private static final String MARKER_ATTRIBUTE = "htmlcleaner_marker";
 
+    /**
+     * Files smaller than this are read into memory, as mapping them costs more than it saves.
+     */
+    private static final long MIN_MAPPED_FILE_SIZE = 256 * 1024;
+
     public static int HTML_4 = 4;
     public static int HTML_5 = 5;
     private CleanerProperties properties;
-    private CleanerTransformations transformations;
 
 
     /**
@@ -134,16 +148,28 @@ public class HtmlCleaner {
         //
         if (tagInfoProvider == null && this.properties.getTagInfoProvider() == null) {
             if (this.properties.getHtmlVersion() == HTML_4)
-                this.properties.setTagInfoProvider(Html4TagProvider.INSTANCE);
+                useTagInfoProvider(Html4TagProvider.INSTANCE);
             else
-                this.properties.setTagInfoProvider(Html5TagProvider.INSTANCE);
+                useTagInfoProvider(Html5TagProvider.INSTANCE);
         } else {
-            if (tagInfoProvider != null) {
-                this.properties.setTagInfoProvider(tagInfoProvider == null ? Html4TagProvider.INSTANCE : tagInfoProvider);
+            if (tagInfoProvider != null && tagInfoProvider != this.properties.getTagInfoProvider()) {
+                useTagInfoProvider(tagInfoProvider);
             }
         }
     }
 
+    private void useTagInfoProvider(ITagInfoProvider tagInfoProvider) {
+        //
+        // Frozen properties may be shared by other cleaners, so this one gets its own frozen copy
+        // with the provider instead of changing them.
+        //
+        if (properties.isFrozen()) {
+            properties = properties.withTagInfoProvider(tagInfoProvider);
+        } else {
+            properties.setTagInfoProvider(tagInfoProvider);
+        }
+    }
+
     /**
      * Constructor - creates cleaner instance with default tag info provider,default html version 5
      *  and default properties.
@@ -179,27 +205,117 @@ public class HtmlCleaner {
     }
 
     public TagNode clean(String htmlContent) {
+        return clean((CharSequence) htmlContent);
+    }
+
+    /**
+     * Cleans the specified content. The tokenizer scans the content directly, without
+     * going through a reader.
+     *
+     * @param htmlContent
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    public TagNode clean(CharSequence htmlContent) {
+        return clean(htmlContent, null);
+    }
+
+    /**
+     * Cleans the specified content within the limits of the specified budget.
+     *
+     * @param htmlContent
+     * @param budget      limits and cancellation of this call, or null for none
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws ParseAbortedException if a limit is exceeded or the budget is cancelled
+     */
+    public TagNode clean(CharSequence htmlContent, ParseBudget budget) {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.setBudget(budget);
+        return cleanContent(htmlContent, cleanTimeValues);
+    }
+
+    /**
+     * Cleans the content only as far as needed to find the elements satisfying the specified
+     * conditions. Tokenizing stops once each condition is satisfied by a complete element and
+     * by none of the elements that are still open, so the rest of the content is never read.
+     * The conditions are checked on open elements by their name and attributes only. Like the
+     * find methods of {@link TagNode}, this never returns the root element itself.
+     *
+     * @param htmlContent
+     * @param conditions
+     * @return for every condition, the first element satisfying it in the tree built from the
+     * content read, or null if there is none.
+     */
+    public TagNode[] findElements(CharSequence htmlContent, ITagNodeCondition... conditions) {
+        return findElements(htmlContent, null, conditions);
+    }
+
+    /**
+     * Finds the elements satisfying the specified conditions within the limits of the specified budget.
+     *
+     * @param htmlContent
+     * @param budget      limits and cancellation of this call, or null for none
+     * @param conditions
+     * @return for every condition, the first element satisfying it in the tree built from the
+     * content read, or null if there is none.
+     * @throws ParseAbortedException if a limit is exceeded or the budget is cancelled
+     * @see #findElements(CharSequence, ITagNodeCondition...)
+     */
+    public TagNode[] findElements(CharSequence htmlContent, ParseBudget budget, ITagNodeCondition... conditions) {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.setBudget(budget);
+        return findElements(htmlContent, conditions, cleanTimeValues);
+    }
+
+    TagNode[] findElements(CharSequence htmlContent, ITagNodeCondition[] conditions, CleanTimeValues cleanTimeValues) {
+        cleanTimeValues.setTargets(conditions);
+        TagNode rootNode = cleanContent(htmlContent, cleanTimeValues);
+
+        TagNode[] result = new TagNode[conditions.length];
+        if (rootNode != null) {
+            for (int i = 0; i < conditions.length; i++) {
+                result[i] = rootNode.findElement(conditions[i], true);
+            }
+        }
+        return result;
+    }
+
+    TagNode cleanContent(CharSequence htmlContent, CleanTimeValues cleanTimeValues) {
         try {
-            return clean(new StringReader(htmlContent), new CleanTimeValues());
+            startClean(cleanTimeValues);
+            return completeClean(new HtmlTokenizer(this, htmlContent, cleanTimeValues), cleanTimeValues);
         } catch (IOException e) {
-            // should never happen because reading from StringReader
+            // should never happen because no reader is involved
             throw new HtmlCleanerException(e);
         }
     }
 
+    public TagNode clean(char[] htmlContent, int offset, int length) {
+        return clean(CharBuffer.wrap(htmlContent, offset, length));
+    }
+
     public TagNode clean(File file, String charset) throws IOException {
         FileInputStream in = new FileInputStream(file);
-        Reader reader = null;
         try {
-            reader = new InputStreamReader(in, charset);
-            return clean(reader, new CleanTimeValues());
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
+            //
+            // The file is decoded on demand by the tokenizer; large files are memory mapped
+            //
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return clean(new InputStreamReader(in, charset), new CleanTimeValues());
+            }
+            ByteBuffer bytes;
+            if (size >= MIN_MAPPED_FILE_SIZE) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // read the whole file
                 }
+                bytes.flip();
             }
+            return clean(bytes, charset);
+        } finally {
             try {
                 in.close();
             } catch (IOException e) {
@@ -207,6 +323,26 @@ public class HtmlCleaner {
         }
     }
 
+    /**
+     * Cleans the content encoded in the specified bytes. The bytes are decoded lazily
+     * while tokenizing, with a fast path for ASCII bytes in ASCII compatible charsets
+     * such as UTF-8 or ISO-8859-2.
+     *
+     * @param bytes   content from the current position up to the limit
+     * @param charset
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    public TagNode clean(ByteBuffer bytes, String charset) throws IOException {
+        Charset decodingCharset;
+        try {
+            decodingCharset = Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+        return clean(new ByteBufferReader(bytes, decodingCharset), new CleanTimeValues());
+    }
+
     public TagNode clean(File file) throws IOException {
         return clean(file, properties.getCharset());
     }
@@ -224,8 +360,7 @@ public class HtmlCleaner {
     // Removing network I/O will make htmlcleaner better suited to a server environment which needs managed connections
     public TagNode clean(URL url, String charset) throws IOException {
         CharSequence content = Utils.readUrl(url, charset);
-        Reader reader = new StringReader(content.toString());
-        return clean(reader, new CleanTimeValues());
+        return clean(content);
     }
 
     /**
@@ -254,6 +389,21 @@ public class HtmlCleaner {
         return clean(reader, new CleanTimeValues());
     }
 
+    /**
+     * Cleans the content of the reader within the limits of the specified budget.
+     *
+     * @param reader (not closed)
+     * @param budget limits and cancellation of this call, or null for none
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     * @throws ParseAbortedException if a limit is exceeded or the budget is cancelled
+     */
+    public TagNode clean(Reader reader, ParseBudget budget) throws IOException {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.setBudget(budget);
+        return clean(reader, cleanTimeValues);
+    }
+
     /**
      * Basic version of the cleaning call.
      *
@@ -262,14 +412,99 @@ public class HtmlCleaner {
      * @throws IOException
      */
     protected TagNode clean(Reader reader, final CleanTimeValues cleanTimeValues) throws IOException {
+        startClean(cleanTimeValues);
+        return completeClean(new HtmlTokenizer(this, reader, cleanTimeValues), cleanTimeValues);
+    }
+
+    /**
+     * Creates a session cleaning documents one after another with this cleaner, reusing its state
+     * between them. A session is meant for a single thread.
+     *
+     * @return new session
+     * @see CleanSession
+     */
+    public CleanSession newSession() {
+        return new CleanSession(this);
+    }
+
+    /**
+     * Creates a parser cleaning content that arrives in chunks, for example while it's being
+     * downloaded. The resulting tree is the same as the one of {@link #clean(String)} for the
+     * whole content.
+     *
+     * @return new push parser for a single document
+     */
+    public HtmlPushParser newPushParser() {
+        return newPushParser((ParseBudget) null);
+    }
+
+    /**
+     * Creates a parser cleaning content that arrives in chunks within the limits of the specified
+     * budget. The time limit counts from the creation of the parser.
+     *
+     * @param budget limits and cancellation of the whole document, or null for none
+     * @return new push parser for a single document
+     * @see #newPushParser()
+     */
+    public HtmlPushParser newPushParser(ParseBudget budget) {
+        return new HtmlPushParser(this, Charset.forName(properties.getCharset()), budget);
+    }
+
+    /**
+     * Creates a parser cleaning content that arrives in chunks.
+     *
+     * @param charset charset used to decode the chunks pushed as bytes
+     * @return new push parser for a single document
+     * @throws UnsupportedEncodingException
+     * @see #newPushParser()
+     */
+    public HtmlPushParser newPushParser(String charset) throws UnsupportedEncodingException {
+        return newPushParser(charset, null);
+    }
+
+    /**
+     * Creates a parser cleaning content that arrives in chunks within the limits of the specified budget.
+     *
+     * @param charset charset used to decode the chunks pushed as bytes
+     * @param budget  limits and cancellation of the whole document, or null for none
+     * @return new push parser for a single document
+     * @throws UnsupportedEncodingException
+     * @see #newPushParser(ParseBudget)
+     */
+    public HtmlPushParser newPushParser(String charset, ParseBudget budget) throws UnsupportedEncodingException {
+        try {
+            return new HtmlPushParser(this, Charset.forName(charset), budget);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+    }
+
+    /**
+     * Starts a clean call whose content is pushed to the returned tokenizer.
+     */
+    HtmlTokenizer startPush(CleanTimeValues cleanTimeValues) {
+        startClean(cleanTimeValues);
+        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, "", cleanTimeValues);
+        htmlTokenizer.startPush();
+        return htmlTokenizer;
+    }
+
+    /**
+     * Resets the clean time values before a document is tokenized.
+     */
+    private void startClean(CleanTimeValues cleanTimeValues) {
         pushNesting(cleanTimeValues);
         cleanTimeValues._headOpened = false;
         cleanTimeValues._bodyOpened = false;
         cleanTimeValues._headTags.clear();
         cleanTimeValues.allTags.clear();
-        cleanTimeValues.pruneTagSet = new HashSet<ITagNodeCondition>(this.properties.getPruneTagSet());
-        cleanTimeValues.allowTagSet = new HashSet<ITagNodeCondition>(this.properties.getAllowTagSet());
-        this.transformations = this.properties.getCleanerTransformations();
+        cleanTimeValues.pruneTagSet.clear();
+        cleanTimeValues.pruneTagSet.addAll(this.properties.getPruneTagSet());
+        if (cleanTimeValues.allowTagSet == null) {
+            cleanTimeValues.allowTagSet = new HashSet<ITagNodeCondition>();
+        }
+        cleanTimeValues.allowTagSet.clear();
+        cleanTimeValues.allowTagSet.addAll(this.properties.getAllowTagSet());
         cleanTimeValues.pruneNodeSet.clear();
 
         cleanTimeValues.htmlNode = this.newTagNode("html");
@@ -278,16 +513,40 @@ public class HtmlCleaner {
         cleanTimeValues.rootNode = null;
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.headNode);
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.bodyNode);
+    }
 
-        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, reader, cleanTimeValues);
-
+    /**
+     * Runs the tokenizer and builds the resulting tree.
+     *
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    private TagNode completeClean(HtmlTokenizer htmlTokenizer, CleanTimeValues cleanTimeValues) throws IOException {
         htmlTokenizer.start();
+        return buildTree(htmlTokenizer, cleanTimeValues);
+    }
 
+    /**
+     * Builds the resulting tree once the tokenizer has read all of the content.
+     *
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    TagNode buildTree(HtmlTokenizer htmlTokenizer, CleanTimeValues cleanTimeValues) {
         if (Thread.currentThread().isInterrupted()) {
             handleInterruption();
             return null;
         }
 
+        //
+        // A cancelled parse is not worth finishing; when another limit is exceeded, the
+        // tokens read so far are still turned into a tree, which is reported as partial result
+        //
+        if (cleanTimeValues.abortReason == ParseAbortedException.Reason.CANCELLED) {
+            popNesting(cleanTimeValues);
+            throw new ParseAbortedException(cleanTimeValues.abortReason, null);
+        }
+        checkBudget(cleanTimeValues);
+
         List nodeList = htmlTokenizer.getTokenList();
         closeAll(nodeList, cleanTimeValues);
 
@@ -310,25 +569,21 @@ public class HtmlCleaner {
             return null;
         }
 
+        checkBudget(cleanTimeValues);
+
         // Some transitions on resulting html require us to have the tag tree structure.
         // i.e. if we want to clear insignificant <br> tags. Thus this place is best for
         // marking nodes to be pruned.
-        while (markNodesToPrune(nodeList, cleanTimeValues)) {
-            if (Thread.currentThread().isInterrupted()) {
-                handleInterruption();
-                return null;
-            }
-            // do them all
+        if (!markNodesToPrune(nodeList, cleanTimeValues)) {
+            handleInterruption();
+            return null;
         }
+        htmlTokenizer.restoreSkippedContent();
 
         // if there are some nodes to prune from tree
         if (cleanTimeValues.pruneNodeSet != null && !cleanTimeValues.pruneNodeSet.isEmpty()) {
             Iterator<TagNode> iterator = cleanTimeValues.pruneNodeSet.iterator();
             while (iterator.hasNext()) {
-                if (Thread.currentThread().isInterrupted()) {
-                    handleInterruption();
-                    return null;
-                }
                 TagNode tagNode = iterator.next();
                 TagNode parent = tagNode.getParent();
                 if (parent != null) {
@@ -339,22 +594,172 @@ public class HtmlCleaner {
 
         cleanTimeValues.rootNode.setDocType(htmlTokenizer.getDocType());
         popNesting(cleanTimeValues);
+        if (cleanTimeValues.abortReason != null) {
+            throw new ParseAbortedException(cleanTimeValues.abortReason, cleanTimeValues.rootNode);
+        }
         return cleanTimeValues.rootNode;
     }
 
+    /**
+     * Stops building the tree if the parse budget is cancelled meanwhile, or if it runs out of
+     * time before the tokenizer noticed. The tree is not complete at this point, so there is no
+     * partial result.
+     */
+    private void checkBudget(CleanTimeValues cleanTimeValues) {
+        ParseBudget budget = cleanTimeValues.budget;
+        if (budget == null) {
+            return;
+        }
+        ParseAbortedException.Reason reason = null;
+        if (budget.isCancelled()) {
+            reason = ParseAbortedException.Reason.CANCELLED;
+        } else if (cleanTimeValues.abortReason == null && System.currentTimeMillis() > cleanTimeValues.deadline) {
+            reason = ParseAbortedException.Reason.TIME_LIMIT;
+        }
+        if (reason != null) {
+            popNesting(cleanTimeValues);
+            throw new ParseAbortedException(reason, null);
+        }
+    }
+
+    /**
+     * Parses the specified content without building a tree. Start tag, end tag, text,
+     * comment and doctype events are reported to the handler in document order, balanced
+     * according to the tag info provider. Pruning and allowed tags are not applied, as
+     * they depend on the complete tree.
+     *
+     * @param htmlContent
+     * @param handler
+     */
+    public void parse(String htmlContent, HtmlEventHandler handler) {
+        parse(htmlContent, handler, null);
+    }
+
+    /**
+     * Parses the specified content without building a tree within the limits of the specified
+     * budget. If a limit is exceeded, the elements still open are closed before the exception is
+     * thrown; a cancelled parse just stops reporting events.
+     *
+     * @param htmlContent
+     * @param handler
+     * @param budget      limits and cancellation of this call, or null for none
+     * @throws ParseAbortedException if a limit is exceeded or the budget is cancelled
+     * @see #parse(String, HtmlEventHandler)
+     */
+    public void parse(String htmlContent, HtmlEventHandler handler, ParseBudget budget) {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.setBudget(budget);
+        try {
+            parse(new HtmlTokenizer(this, htmlContent, cleanTimeValues), handler, cleanTimeValues);
+        } catch (IOException e) {
+            // should never happen because no reader is involved
+            throw new HtmlCleanerException(e);
+        }
+    }
+
+    /**
+     * Event based version of the cleaning call.
+     *
+     * @param reader
+     * @param handler receiver of the balanced events
+     * @throws IOException
+     * @see #parse(String, HtmlEventHandler)
+     */
+    public void parse(Reader reader, HtmlEventHandler handler) throws IOException {
+        parse(reader, handler, null);
+    }
+
+    /**
+     * Event based version of the cleaning call within the limits of the specified budget.
+     *
+     * @param reader
+     * @param handler receiver of the balanced events
+     * @param budget  limits and cancellation of this call, or null for none
+     * @throws IOException
+     * @throws ParseAbortedException if a limit is exceeded or the budget is cancelled
+     * @see #parse(String, HtmlEventHandler, ParseBudget)
+     */
+    public void parse(Reader reader, HtmlEventHandler handler, ParseBudget budget) throws IOException {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.setBudget(budget);
+        parse(new HtmlTokenizer(this, reader, cleanTimeValues), handler, cleanTimeValues);
+    }
+
+    private void parse(HtmlTokenizer htmlTokenizer, HtmlEventHandler handler, CleanTimeValues cleanTimeValues) throws IOException {
+        HtmlEventBalancer eventBalancer = new HtmlEventBalancer(this.properties, handler);
+        htmlTokenizer.setEventBalancer(eventBalancer);
+        htmlTokenizer.start();
+        if (cleanTimeValues.abortReason != ParseAbortedException.Reason.CANCELLED) {
+            eventBalancer.finish();
+        }
+        if (cleanTimeValues.abortReason != null) {
+            throw new ParseAbortedException(cleanTimeValues.abortReason, null);
+        }
+    }
+
+    /**
+     * Marks the nodes to prune. The tree is walked once, afterwards only the nodes whose
+     * conditions may have changed are checked again: the ancestors of a newly pruned node, as
+     * conditions may depend on pruned descendants, and its siblings, as they may depend on
+     * pruned siblings. This ends with the same nodes marked as walking the whole tree again
+     * until no more nodes get pruned.
+     *
+     * @param nodeList
+     * @param cleanTimeValues
+     * @return false if the thread was interrupted meanwhile
+     */
     private boolean markNodesToPrune(List nodeList, CleanTimeValues cleanTimeValues) {
-        boolean nodesPruned = false;
+        cleanTimeValues.pruneMatcher = new PruneMatcher(cleanTimeValues.pruneTagSet);
+        cleanTimeValues.allowMatcher = new PruneMatcher(cleanTimeValues.allowTagSet);
+        if (cleanTimeValues.pruneMatcher.isEmpty() && cleanTimeValues.allowMatcher.isEmpty()) {
+            return true;
+        }
+
+        PruneWorklist worklist = new PruneWorklist();
+        for (Object next : nodeList) {
+            if (next instanceof TagNode) {
+                worklist.topNodes.add((TagNode) next);
+            }
+        }
+        markNodesToPrune(nodeList, worklist, cleanTimeValues);
+
+        while (!worklist.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (!worklist.nodesToCheck.isEmpty()) {
+                TagNode node = worklist.poll(worklist.nodesToCheck);
+                if (worklist.isReached(node) && !node.isPruned() && addIfNeededToPruneSet(node, cleanTimeValues)) {
+                    worklist.pruned(node);
+                }
+            } else {
+                TagNode parent = worklist.poll(worklist.parentsToCheck);
+                boolean reached = worklist.isReached(parent);
+                if (!parent.isPruned() && (reached || worklist.isParentOfTopNodes(parent))) {
+                    for (Object child : parent.getAllChildren()) {
+                        if (child instanceof TagNode && !((TagNode) child).isPruned() && (reached || worklist.topNodes.contains(child))) {
+                            if (addIfNeededToPruneSet((TagNode) child, cleanTimeValues)) {
+                                worklist.pruned((TagNode) child);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    private void markNodesToPrune(List<?> nodeList, PruneWorklist worklist, CleanTimeValues cleanTimeValues) {
         for (Object next : nodeList) {
-            if (next instanceof TagNode && !cleanTimeValues.pruneNodeSet.contains(next)) {
+            if (next instanceof TagNode && !((TagNode) next).isPruned()) {
                 TagNode node = (TagNode) next;
                 if (addIfNeededToPruneSet(node, cleanTimeValues)) {
-                    nodesPruned = true;
+                    worklist.pruned(node);
                 } else if (!node.isEmpty()) {
-                    nodesPruned |= markNodesToPrune(node.getAllChildren(), cleanTimeValues);
+                    markNodesToPrune(node.getAllChildren(), worklist, cleanTimeValues);
                 }
             }
         }
-        return nodesPruned;
     }
 
     /**
@@ -412,10 +817,6 @@ public class HtmlCleaner {
 
             Iterator<String> iterator = namespacePrefixes.iterator();
             while (iterator.hasNext()) {
-                if (Thread.currentThread().isInterrupted()) {
-                    handleInterruption();
-                    return;
-                }
                 String prefix = iterator.next();
                 if (!cleanTimeValues.namespaceMap.containsKey(prefix)) {
                     String xmlnsAtt = "xmlns:" + prefix;
@@ -467,10 +868,11 @@ public class HtmlCleaner {
     private boolean isFatalTagSatisfied(TagInfo tag, CleanTimeValues cleanTimeValues) {
         boolean fatal = true;
         if (tag != null) {
-            if (tag.getFatalTags().isEmpty()) return true;
+            int[] fatalIds = tag.getFatalIds();
+            if (fatalIds.length == 0) return true;
             fatal = false;
-            for (String fatalTagName : tag.getFatalTags()) {
-                if (getOpenTags(cleanTimeValues).tagExists(fatalTagName)) {
+            for (int fatalId : fatalIds) {
+                if (getOpenTags(cleanTimeValues).tagExists(fatalId)) {
                     fatal = true;
                 }
             }
@@ -490,18 +892,18 @@ public class HtmlCleaner {
         //
         // The tag has no required parent tags
         //
-        if (tag.getRequiredParentTags().isEmpty()) return false;
+        int[] requiredParentIds = tag.getRequiredParentIds();
+        if (requiredParentIds.length == 0) return false;
+        OpenTags openTags = getOpenTags(cleanTimeValues);
 
         //
         // Iterate through fatal tags and find location of last fatal tag
         //
         int fatalTagPosition = -1;
-        for (String fatalTag : tag.getFatalTags()) {
-            if (fatalTag != null) {
-                TagPos tagPos = getOpenTags(cleanTimeValues).findTag(fatalTag);
-                if (tagPos != null) {
-                    fatalTagPosition = tagPos.position;
-                }
+        for (int fatalId : tag.getFatalIds()) {
+            TagPos tagPos = openTags.findTag(fatalId);
+            if (tagPos != null) {
+                fatalTagPosition = tagPos.position;
             }
         }
 
@@ -510,12 +912,10 @@ public class HtmlCleaner {
         // If any required parent tag is present, we're OK.
         //
         boolean requiredTagMissing = true;
-        for (String requiredTag : tag.getRequiredParentTags()) {
-            if (requiredTag != null) {
-                TagPos currTagPos = getOpenTags(cleanTimeValues).findTag(requiredTag);
-                if (currTagPos != null) {
-                    requiredTagMissing = currTagPos.position <= fatalTagPosition;
-                }
+        for (int requiredParentId : requiredParentIds) {
+            TagPos currTagPos = openTags.findTag(requiredParentId);
+            if (currTagPos != null) {
+                requiredTagMissing = currTagPos.position <= fatalTagPosition;
             }
         }
 
@@ -524,14 +924,8 @@ public class HtmlCleaner {
         //
         // iterates through the list of open tags from the end and check if there is some higher
         //
-        ListIterator it = getOpenTags(cleanTimeValues).list.listIterator(getOpenTags(cleanTimeValues).list.size());
-        while (it.hasPrevious()) {
-            TagPos currTagPos = (TagPos) it.previous();
-            if (Thread.currentThread().isInterrupted()) {
-                handleInterruption();
-                return currTagPos.position <= fatalTagPosition;
-            }
-            if (tag.isHigher(currTagPos.name)) {
+        for (TagPos currTagPos = openTags.getLastTagPos(); currTagPos != null; currTagPos = currTagPos.prev) {
+            if (tag.isHigher(currTagPos.id)) {
                 return currTagPos.position <= fatalTagPosition;
             }
         }
@@ -544,11 +938,71 @@ public class HtmlCleaner {
         return tagNode;
     }
 
-    private TagNode createTagNode(TagNode startTagToken) {
+    private TagNode createTagNode(TagNode startTagToken, CleanTimeValues cleanTimeValues) {
         startTagToken.setFormed();
+        if (cleanTimeValues.targetConditions != null) {
+            cleanTimeValues.formedTags.add(startTagToken);
+        }
         return startTagToken;
     }
 
+    /**
+     * Checks the elements formed since the last call against the conditions of a targeted
+     * clean call.
+     *
+     * @return true if every condition is satisfied by a formed element and can't be satisfied
+     * by an element that is still open, which would come first in the tree
+     */
+    boolean areTargetsFound(List<BaseToken> nodeList, CleanTimeValues cleanTimeValues) {
+        ITagNodeCondition[] conditions = cleanTimeValues.targetConditions;
+        boolean allMatched = true;
+        for (int i = 0; i < conditions.length; i++) {
+            if (!cleanTimeValues.targetsMatched[i]) {
+                for (TagNode formedTag : cleanTimeValues.formedTags) {
+                    if (conditions[i].satisfy(formedTag)) {
+                        cleanTimeValues.targetsMatched[i] = true;
+                        break;
+                    }
+                }
+                allMatched &= cleanTimeValues.targetsMatched[i];
+            }
+        }
+        cleanTimeValues.formedTags.clear();
+        if (!allMatched) {
+            return false;
+        }
+
+        //
+        // Tokens kept for moving in front of an open element are not formed yet either
+        //
+        for (TagPos tagPos = getOpenTags(cleanTimeValues).findFirstTagPos(); tagPos != null; tagPos = tagPos.next) {
+            BaseToken token = nodeList.get(tagPos.position);
+            if (token instanceof TagNode) {
+                TagNode startTagToken = (TagNode) token;
+                if (satisfiesAny(startTagToken, conditions)) {
+                    return false;
+                }
+                if (startTagToken.getItemsToMove() != null) {
+                    for (BaseToken item : startTagToken.getItemsToMove()) {
+                        if (item instanceof TagNode && satisfiesAny((TagNode) item, conditions)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean satisfiesAny(TagNode tagNode, ITagNodeCondition[] conditions) {
+        for (ITagNodeCondition condition : conditions) {
+            if (condition.satisfy(tagNode)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean isAllowedInLastOpenTag(BaseToken token, CleanTimeValues cleanTimeValues) {
         TagPos last = getOpenTags(cleanTimeValues).getLastTagPos();
         if (last != null) {
@@ -616,10 +1070,6 @@ public class HtmlCleaner {
     void makeTree(List nodeList, ListIterator<BaseToken> nodeIterator, CleanTimeValues cleanTimeValues) {
         // process while not reach the end of the list
         while (nodeIterator.hasNext()) {
-            if (Thread.currentThread().isInterrupted()) {
-                handleInterruption();
-                return;
-            }
             BaseToken token = nodeIterator.next();
 
             if (token instanceof EndTagToken) {
@@ -707,12 +1157,16 @@ public class HtmlCleaner {
                                     //
                                     tagNodes = flattenNestedList(tagNodes);
 
+                                    //
+                                    // The broken node itself was already added to the tag it was opened in
+                                    //
+                                    tagNodes.get(tagNodes.size() - 1).removeFromTree();
+
                                     for (TagNode n : tagNodes) {
-                                        if (Thread.currentThread().isInterrupted()) {
-                                            // TODO Interruption
-                                            return;
-                                        }
                                         nodeIterator.add(n);
+                                        if (nodeIterator.hasNext()) {
+                                            attachBeforeNext(nodeList, nodeIterator, n, cleanTimeValues);
+                                        }
                                         makeTree(nodeList, nodeList.listIterator(nodeList.size() - 1), cleanTimeValues);
                                     }
                                     // delete the elements from the previous position, we should not need them anymore
@@ -732,6 +1186,8 @@ public class HtmlCleaner {
                             }
 
                         }
+                    } else {
+                        attachToOpenParent(nodeIterator, token, cleanTimeValues);
                     }
                 }
             } else if (isStartToken(token)) {
@@ -862,7 +1318,7 @@ public class HtmlCleaner {
                 } else if (tag == null && lastTagInfo != null && !lastTagInfo.allowsAnything()) {
                     closeSnippet(nodeList, lastTagPos, startTagToken, cleanTimeValues);
                     nodeIterator.previous();
-                } else if (tag != null && tag.hasPermittedTags() && getOpenTags(cleanTimeValues).someAlreadyOpen(tag.getPermittedTags())) {
+                } else if (tag != null && tag.hasPermittedTags() && getOpenTags(cleanTimeValues).someAlreadyOpen(tag.getPermittedIds())) {
                     nodeIterator.set(null);
                     // if tag that must be unique, ignore this occurence
                 } else if (tag != null && tag.isUnique() && getOpenTags(cleanTimeValues).tagEncountered(tagName)) {
@@ -916,10 +1372,6 @@ public class HtmlCleaner {
                         ListIterator closedIt = closed.listIterator(closedCount);
                         List toBeCopied = new ArrayList();
                         while (closedIt.hasPrevious()) {
-                            if (Thread.currentThread().isInterrupted()) {
-                                // TODO Interruption
-                                return;
-                            }
                             TagNode currStartToken = (TagNode) closedIt.previous();
                             if (tag.isCopy(currStartToken.getName())) {
                                 toBeCopied.add(0, currStartToken);
@@ -931,10 +1383,6 @@ public class HtmlCleaner {
                         if (toBeCopied.size() > 0) {
                             Iterator copyIt = toBeCopied.iterator();
                             while (copyIt.hasNext()) {
-                                if (Thread.currentThread().isInterrupted()) {
-                                    // TODO Interruption
-                                    return;
-                                }
                                 TagNode currStartToken = (TagNode) copyIt.next();
                                 if (!isCopiedTokenEqualToNextThreeCopiedTokens(currStartToken, nodeIterator)) {
                                     nodeIterator.add(currStartToken.makeCopy());
@@ -990,12 +1438,21 @@ public class HtmlCleaner {
 
                 } else if (tag != null && !tag.allowsBody()) {
                     // if it is known HTML tag but doesn't allow body, it is immediately closed
-                    TagNode newTagNode = createTagNode(startTagToken);
+                    TagNode newTagNode = createTagNode(startTagToken, cleanTimeValues);
                     addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
                     nodeIterator.set(newTagNode);
+                    attachToOpenParent(nodeIterator, newTagNode, cleanTimeValues);
                     // default case - just remember this open tag and go further
                 } else {
-                    getOpenTags(cleanTimeValues).addTag(tagName, nodeIterator.previousIndex());
+                    TagNode openParent = getOpenParent(cleanTimeValues);
+                    if (openParent != null && openParent != startTagToken && startTagToken.getParent() == null) {
+                        openParent.addChild(startTagToken);
+                    }
+                    OpenTags openTags = getOpenTags(cleanTimeValues);
+                    openTags.addTag(startTagToken, nodeIterator.previousIndex());
+                    if (openTags.size() > cleanTimeValues.maxDepth) {
+                        cleanTimeValues.abortReason = ParseAbortedException.Reason.DEPTH_LIMIT;
+                    }
                 }
             } else {
                 if (cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened && properties.isKeepWhitespaceAndCommentsInHead()) {
@@ -1017,11 +1474,65 @@ public class HtmlCleaner {
                 if (!isAllowedInLastOpenTag(token, cleanTimeValues)) {
                     saveToLastOpenTag(nodeList, token, cleanTimeValues);
                     nodeIterator.set(null);
+                } else {
+                    attachToOpenParent(nodeIterator, token, cleanTimeValues);
                 }
             }
         }
     }
 
+    /**
+     * @return start tag of the last open tag, unless the same start tag was opened twice and is
+     * already closed, in which case the tokens following it stay in the list
+     */
+    private TagNode getOpenParent(CleanTimeValues cleanTimeValues) {
+        TagPos last = getOpenTags(cleanTimeValues).getLastTagPos();
+        if (last != null && !last.node.isFormed()) {
+            return last.node;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the specified start tag is the last open tag, so that the tokens following
+     * it become its children, and neither it nor its content is going to be moved to head section
+     */
+    boolean isContentSkippable(TagNode startTagToken, CleanTimeValues cleanTimeValues) {
+        return getOpenParent(cleanTimeValues) == startTagToken
+                && !(cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened)
+                && !isHeadCandidate(getTagInfo(startTagToken.getName(), cleanTimeValues), cleanTimeValues);
+    }
+
+    /**
+     * Adds the token to the children of the last open tag right away, so it doesn't have to be
+     * moved once the tag gets closed. Tokens outside of any open tag stay in the list.
+     */
+    private void attachToOpenParent(ListIterator<BaseToken> nodeIterator, BaseToken token, CleanTimeValues cleanTimeValues) {
+        TagNode openParent = getOpenParent(cleanTimeValues);
+        if (openParent != null && token != null) {
+            openParent.addChild(token);
+            nodeIterator.set(null);
+            cleanTimeValues.lastAttachedToken = token;
+        }
+    }
+
+    /**
+     * Node inserted in front of tokens already in the list is not processed, it's only picked up
+     * by the open tag it precedes, so it goes right before its following sibling.
+     */
+    private void attachBeforeNext(List<?> nodeList, ListIterator<BaseToken> nodeIterator, TagNode node, CleanTimeValues cleanTimeValues) {
+        TagNode openParent = getOpenParent(cleanTimeValues);
+        if (openParent != null) {
+            Object next = nodeList.get(nodeIterator.nextIndex());
+            if (next instanceof TagNode && ((TagNode) next).getParent() == openParent) {
+                openParent.insertChildrenBefore((TagNode) next, Collections.singletonList(node));
+            } else {
+                openParent.addChild(node);
+            }
+            nodeList.set(nodeIterator.previousIndex(), null);
+        }
+    }
+
     /**
      * Flattens a list of tagnodes
      */
@@ -1044,8 +1555,12 @@ public class HtmlCleaner {
         TagNode copy = closedByPresidence.makeCopy();
         copy.setAutoGenerated(true);
         copy.removeAttribute("id");
+        TagNode openParent = getOpenParent(cleanTimeValues);
+        if (openParent != null) {
+            openParent.addChild(copy);
+        }
         nodeIterator.add(copy);
-        getOpenTags(cleanTimeValues).addTag(closedByPresidence.getName(), nodeIterator.previousIndex());
+        getOpenTags(cleanTimeValues).addTag(copy, nodeIterator.previousIndex());
     }
 
     /**
@@ -1071,6 +1586,10 @@ public class HtmlCleaner {
                 TagNode node = (TagNode) child;
                 TagInfo tag = getTagInfoProvider().getTagInfo(node.getName());
                 addPossibleHeadCandidate(tag, node, cleanTimeValues);
+                node.removeFromTree();
+            } else if (child instanceof List) {
+                List<?> closedItems = (List<?>) child;
+                ((TagNode) closedItems.get(closedItems.size() - 1)).removeFromTree();
             } else {
                 if (child instanceof ContentNode) {
                     toAdd = !"".equals(child.toString());
@@ -1085,10 +1604,6 @@ public class HtmlCleaner {
         // move all viable head candidates to head section of the tree
         Iterator headIterator = cleanTimeValues._headTags.iterator();
         while (headIterator.hasNext()) {
-            if (Thread.currentThread().isInterrupted()) {
-                handleInterruption();
-                return;
-            }
             TagNode headCandidateNode = (TagNode) headIterator.next();
 
             // check if this node is already inside a candidate for moving to head
@@ -1126,11 +1641,6 @@ public class HtmlCleaner {
         boolean isListEnd = false;
 
         while ((toNode == null && !isListEnd) || (toNode != null && item != toNode)) {
-            if (Thread.currentThread().isInterrupted()) {
-                // Interruption
-                handleInterruption();
-                return closed;
-            }
             if (isStartToken(item)) {
                 TagNode startTagToken = (TagNode) item;
                 closed.add(startTagToken);
@@ -1143,12 +1653,22 @@ public class HtmlCleaner {
                     popNesting(cleanTimeValues);
                 }
 
-                TagNode newTagNode = createTagNode(startTagToken);
+                TagNode newTagNode = createTagNode(startTagToken, cleanTimeValues);
                 TagInfo tag = getTagInfo(newTagNode.getName(), cleanTimeValues);
                 addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
                 if (tagNode != null) {
-                    tagNode.addChildren(itemsToMove);
-                    tagNode.addChild(newTagNode);
+                    //
+                    // Nested start tag is normally added to its parent when opened, only the moved items are missing
+                    //
+                    if (newTagNode.getParent() == tagNode) {
+                        if (itemsToMove != null) {
+                            tagNode.insertChildrenBefore(newTagNode, itemsToMove);
+                        }
+                    } else {
+                        newTagNode.removeFromTree();
+                        tagNode.addChildren(itemsToMove);
+                        tagNode.addChild(newTagNode);
+                    }
                     it.set(null);
                 } else {
                     if (itemsToMove != null) {
@@ -1164,7 +1684,26 @@ public class HtmlCleaner {
             } else {
                 if (tagNode != null) {
                     it.set(null);
-                    if (item != null) {
+                    if (item instanceof List) {
+                        //
+                        // Tag closed along with the items moved in front of it; the tag itself
+                        // is already a child, unless it was opened outside of this one
+                        //
+                        List<?> closedItems = (List<?>) item;
+                        TagNode closedTag = (TagNode) closedItems.get(closedItems.size() - 1);
+                        if (closedTag.getParent() == tagNode) {
+                            tagNode.insertChildrenBefore(closedTag, closedItems.subList(0, closedItems.size() - 1));
+                        } else {
+                            closedTag.removeFromTree();
+                            tagNode.addChild(item);
+                        }
+                    } else if (item instanceof TagNode) {
+                        TagNode closedTag = (TagNode) item;
+                        if (closedTag.getParent() != tagNode) {
+                            closedTag.removeFromTree();
+                            tagNode.addChild(item);
+                        }
+                    } else if (item != null) {
                         tagNode.addChild(item);
                     }
                 }
@@ -1184,11 +1723,7 @@ public class HtmlCleaner {
      */
     private void closeAll(List nodeList, CleanTimeValues cleanTimeValues) {
         TagPos firstTagPos = getOpenTags(cleanTimeValues).findFirstTagPos();
-        for (TagPos pos : getOpenTags(cleanTimeValues).list) {
-            if (Thread.currentThread().isInterrupted()) {
-                handleInterruption();
-                return;
-            }
+        for (TagPos pos = firstTagPos; pos != null; pos = pos.next) {
             properties.fireHtmlError(true, (TagNode) nodeList.get(pos.position), ErrorType.UnclosedTag);
         }
         if (firstTagPos != null) {
@@ -1203,13 +1738,16 @@ public class HtmlCleaner {
      * @param tagNode
      */
     private void addPossibleHeadCandidate(TagInfo tagInfo, TagNode tagNode, CleanTimeValues cleanTimeValues) {
-        if (tagInfo != null && tagNode != null) {
-            if (tagInfo.isHeadTag() || (tagInfo.isHeadAndBodyTag() && cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened)) {
-                cleanTimeValues._headTags.add(tagNode);
-            }
+        if (tagNode != null && isHeadCandidate(tagInfo, cleanTimeValues)) {
+            cleanTimeValues._headTags.add(tagNode);
         }
     }
 
+    private boolean isHeadCandidate(TagInfo tagInfo, CleanTimeValues cleanTimeValues) {
+        return tagInfo != null
+                && (tagInfo.isHeadTag() || (tagInfo.isHeadAndBodyTag() && cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened));
+    }
+
     public CleanerProperties getProperties() {
         return properties;
     }
@@ -1244,21 +1782,16 @@ public class HtmlCleaner {
     }
 
     private boolean addIfNeededToPruneSet(TagNode tagNode, CleanTimeValues cleanTimeValues) {
-        if (cleanTimeValues.pruneTagSet != null) {
-            for (ITagNodeCondition condition : cleanTimeValues.pruneTagSet) {
-                if (condition.satisfy(tagNode)) {
-                    addPruneNode(tagNode, cleanTimeValues);
-                    properties.fireConditionModification(condition, tagNode);
-                    return true;
-                }
-            }
+        ITagNodeCondition condition = cleanTimeValues.pruneMatcher.match(tagNode);
+        if (condition != null) {
+            addPruneNode(tagNode, cleanTimeValues);
+            properties.fireConditionModification(condition, tagNode);
+            return true;
         }
 
-        if (cleanTimeValues.allowTagSet != null && !cleanTimeValues.allowTagSet.isEmpty()) {
-            for (ITagNodeCondition condition : cleanTimeValues.allowTagSet) {
-                if (condition.satisfy(tagNode)) {
-                    return false;
-                }
+        if (!cleanTimeValues.allowMatcher.isEmpty()) {
+            if (cleanTimeValues.allowMatcher.match(tagNode) != null) {
+                return false;
             }
             if (!tagNode.isAutoGenerated()) {
                 properties.fireUserDefinedModification(true, tagNode, ErrorType.NotAllowedTag);
@@ -1284,7 +1817,7 @@ public class HtmlCleaner {
      * @return Transformations defined for this instance of cleaner
      */
     public CleanerTransformations getTransformations() {
-        return transformations;
+        return this.properties.getCleanerTransformations();
     }
 
     /**
@@ -1337,24 +1870,31 @@ public class HtmlCleaner {
      * @param transInfos
      */
     public void initCleanerTransformations(Map transInfos) {
-        transformations = new CleanerTransformations(transInfos);
+        this.properties.setCleanerTransformations(new CleanerTransformations(transInfos));
     }
 
     private OpenTags getOpenTags(CleanTimeValues cleanTimeValues) {
-        return cleanTimeValues.nestingStates.peek().getOpenTags();
+        return cleanTimeValues.nestingState.getOpenTags();
     }
 
     private ChildBreaks getChildBreaks(CleanTimeValues cleanTimeValues) {
-        return cleanTimeValues.nestingStates.peek().getChildBreaks();
+        return cleanTimeValues.nestingState.getChildBreaks();
     }
 
     // TODO: better name
     private NestingState pushNesting(CleanTimeValues cleanTimeValues) {
-        return cleanTimeValues.nestingStates.push(new NestingState());
+        List<NestingState> spareNestingStates = cleanTimeValues.spareNestingStates;
+        NestingState nestingState = spareNestingStates.isEmpty() ? new NestingState() : spareNestingStates.remove(spareNestingStates.size() - 1);
+        cleanTimeValues.nestingState = cleanTimeValues.nestingStates.push(nestingState);
+        return nestingState;
     }
 
     private NestingState popNesting(CleanTimeValues cleanTimeValues) {
-        return cleanTimeValues.nestingStates.pop();
+        NestingState nestingState = cleanTimeValues.nestingStates.pop();
+        cleanTimeValues.nestingState = cleanTimeValues.nestingStates.isEmpty() ? null : cleanTimeValues.nestingStates.peek();
+        nestingState.clear();
+        cleanTimeValues.spareNestingStates.add(nestingState);
+        return nestingState;
     }
 
     /**
@@ -1368,15 +1908,85 @@ public class HtmlCleaner {
     /**
      * Contains information about single open tag
      */
+    /**
+     * Nodes to check again while marking the nodes to prune. The walk reaches the top nodes,
+     * which are the ones of the token list, and all nodes below them.
+     */
+    private static class PruneWorklist {
+        private Set<TagNode> topNodes = new HashSet<TagNode>();
+        private Set<TagNode> nodesToCheck = new LinkedHashSet<TagNode>();
+        private Set<TagNode> parentsToCheck = new LinkedHashSet<TagNode>();
+
+        private boolean isEmpty() {
+            return nodesToCheck.isEmpty() && parentsToCheck.isEmpty();
+        }
+
+        private TagNode poll(Set<TagNode> nodes) {
+            Iterator<TagNode> iterator = nodes.iterator();
+            TagNode node = iterator.next();
+            iterator.remove();
+            return node;
+        }
+
+        private void pruned(TagNode node) {
+            TagNode parent = node.getParent();
+            if (parent != null) {
+                parentsToCheck.add(parent);
+            }
+            for (; parent != null; parent = parent.getParent()) {
+                nodesToCheck.add(parent);
+            }
+        }
+
+        /**
+         * @return true if the node is one the walk reached, and it is not inside a pruned node
+         */
+        private boolean isReached(TagNode node) {
+            for (TagNode curr = node; curr != null; curr = curr.getParent()) {
+                if (curr != node && curr.isPruned()) {
+                    return false;
+                }
+                if (topNodes.contains(curr)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isParentOfTopNodes(TagNode node) {
+            for (Object child : node.getAllChildren()) {
+                if (topNodes.contains(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private class TagPos {
         private int position;
         private String name;
+        private int id;
         private TagInfo info;
 
+        /**
+         * Start tag of the open tag, children are added to it as they come
+         */
+        private TagNode node;
+
+        /**
+         * Neighbours in the list of open tags, and the open tag of the same name below this one
+         */
+        private TagPos prev;
+        private TagPos next;
+        private TagPos sameNameBelow;
+        private int order;
+
         TagPos(int position, String name) {
             this.position = position;
             this.name = name;
             this.info = getTagInfoProvider().getTagInfo(name);
+            this.id = info != null && name.equals(info.getName()) ? info.getId() : TagInfo.findId(name);
         }
     }
 
@@ -1442,46 +2052,99 @@ public class HtmlCleaner {
         public ChildBreaks getChildBreaks() {
             return this.childBreaks;
         }
+
+        private void clear() {
+            openTags.clear();
+            childBreaks.closedByChildBreak.clear();
+            childBreaks.breakingTags.clear();
+        }
     }
 
     /**
      * Class that contains information and methods for managing list of open,
      * but unhandled tags.
+     * <p>Open tags are linked in the order they were opened, and the topmost open tag of every
+     * name is indexed, with the ones below it chained, so looking a tag up doesn't walk the list.</p>
      */
     class OpenTags {
-        private List<TagPos> list = new ArrayList<TagPos>();
+        private TagPos first;
         private TagPos last;
+        private int size;
+        private int opened;
+        private Map<String, TagPos> topByName = new HashMap<String, TagPos>();
+        private TagPos[] topById = new TagPos[TagInfo.idCount()];
         private Set<String> set = new HashSet<String>();
 
         private boolean isEmpty() {
-            return list.isEmpty();
+            return size == 0;
+        }
+
+        private void clear() {
+            first = null;
+            last = null;
+            size = 0;
+            opened = 0;
+            topByName.clear();
+            Arrays.fill(topById, null);
+            set.clear();
         }
 
-        private void addTag(String tagName, int position) {
-            last = new TagPos(position, tagName);
-            list.add(last);
+        private int size() {
+            return size;
+        }
+
+        private void addTag(TagNode node, int position) {
+            String tagName = node.getName();
+            TagPos tagPos = new TagPos(position, tagName);
+            tagPos.node = node;
+            tagPos.order = opened++;
+            tagPos.prev = last;
+            if (last != null) {
+                last.next = tagPos;
+            } else {
+                first = tagPos;
+            }
+            last = tagPos;
+            size++;
+            tagPos.sameNameBelow = topByName.put(tagName, tagPos);
+            if (tagPos.id >= 0) {
+                if (tagPos.id >= topById.length) {
+                    topById = Arrays.copyOf(topById, TagInfo.idCount());
+                }
+                topById[tagPos.id] = tagPos;
+            }
             set.add(tagName);
         }
 
         private void removeTag(String tagName) {
-            ListIterator<TagPos> it = list.listIterator(list.size());
-            while (it.hasPrevious()) {
-                if (Thread.currentThread().isInterrupted()) {
-                    handleInterruption();
-                    break;
-                }
-                TagPos currTagPos = it.previous();
-                if (tagName.equals(currTagPos.name)) {
-                    it.remove();
-                    break;
-                }
+            TagPos tagPos = topByName.get(tagName);
+            if (tagPos == null) {
+                return;
+            }
+            if (tagPos.sameNameBelow != null) {
+                topByName.put(tagName, tagPos.sameNameBelow);
+            } else {
+                topByName.remove(tagName);
+            }
+            if (tagPos.id >= 0) {
+                topById[tagPos.id] = tagPos.sameNameBelow;
             }
 
-            last = list.isEmpty() ? null : (TagPos) list.get(list.size() - 1);
+            if (tagPos.prev != null) {
+                tagPos.prev.next = tagPos.next;
+            } else {
+                first = tagPos.next;
+            }
+            if (tagPos.next != null) {
+                tagPos.next.prev = tagPos.prev;
+            } else {
+                last = tagPos.prev;
+            }
+            size--;
         }
 
         private TagPos findFirstTagPos() {
-            return list.isEmpty() ? null : (TagPos) list.get(0);
+            return first;
         }
 
         private TagPos getLastTagPos() {
@@ -1490,54 +2153,57 @@ public class HtmlCleaner {
 
         private TagPos findTag(String tagName) {
             if (tagName != null) {
-                ListIterator<TagPos> it = list.listIterator(list.size());
-                String fatalTag = null;
-                TagInfo fatalInfo = getTagInfoProvider().getTagInfo(tagName);
+                return checkFatalTags(topByName.get(tagName));
+            }
 
-                while (it.hasPrevious()) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        handleInterruption();
-                        return null;
-                    }
-                    TagPos currTagPos = it.previous();
-                    if (tagName.equals(currTagPos.name)) {
-                        return currTagPos;
-                    } else if (fatalInfo != null && fatalInfo.isFatalTag(currTagPos.name)) {
-                        // do not search past a fatal tag for this tag
+            return null;
+        }
+
+        private TagPos findTag(int tagId) {
+            return tagId < topById.length ? checkFatalTags(topById[tagId]) : null;
+        }
+
+        /**
+         * @return the specified open tag, or null if a fatal tag for it was opened after it
+         */
+        private TagPos checkFatalTags(TagPos tagPos) {
+            if (tagPos == null) {
+                return null;
+            }
+
+            //
+            // do not search past a fatal tag for this tag, tag pos info is the one of the provider
+            //
+            TagInfo fatalInfo = tagPos.info;
+            if (fatalInfo != null) {
+                for (int fatalId : fatalInfo.getFatalIds()) {
+                    TagPos fatalTagPos = fatalId < topById.length ? topById[fatalId] : null;
+                    if (fatalTagPos != null && fatalTagPos.order > tagPos.order) {
                         return null;
                     }
                 }
             }
-
-            return null;
+            return tagPos;
         }
 
-        private boolean tagExists(String tagName) {
-            TagPos tagPos = findTag(tagName);
+        private boolean tagExists(int tagId) {
+            TagPos tagPos = findTag(tagId);
             return tagPos != null;
         }
 
         private TagPos findTagToPlaceRubbish() {
-            TagPos result = null, prev = null;
+            TagPos prev = null;
 
-            if (!isEmpty()) {
-                ListIterator<TagPos> it = list.listIterator(list.size());
-                while (it.hasPrevious()) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        handleInterruption();
-                        return null;
-                    }
-                    result = it.previous();
-                    if (result.info == null || result.info.allowsAnything()) {
-                        if (prev != null) {
-                            return prev;
-                        }
+            for (TagPos result = last; result != null; result = result.prev) {
+                if (result.info == null || result.info.allowsAnything()) {
+                    if (prev != null) {
+                        return prev;
                     }
-                    prev = result;
                 }
+                prev = result;
             }
 
-            return result;
+            return first;
         }
 
         private boolean tagEncountered(String tagName) {
@@ -1545,13 +2211,13 @@ public class HtmlCleaner {
         }
 
         /**
-         * Checks if any of tags specified in the set are already open.
+         * Checks if any of tags specified by their ids are already open.
          *
-         * @param tags
+         * @param tagIds
          */
-        private boolean someAlreadyOpen(Set<String> tags) {
-            for (TagPos curr : list) {
-                if (tags.contains(curr.name)) {
+        private boolean someAlreadyOpen(BitSet tagIds) {
+            for (int tagId = tagIds.nextSetBit(0); tagId >= 0 && tagId < topById.length; tagId = tagIds.nextSetBit(tagId + 1)) {
+                if (topById[tagId] != null) {
                     return true;
                 }
             }
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Balances the tokens produced by {@link HtmlTokenizer} on the fly and reports them
+ * to a {@link HtmlEventHandler}, without building a tree.
+ * <p>Only a stack of open elements is kept. The balancing rules are the ones applied by
+ * {@link HtmlCleaner#makeTree}: fatal, required parent, must close, copy, continue after,
+ * permitted and unique tags. Tokens the tree builder would move to an enclosing element are
+ * reported in place instead, because the events are never buffered.</p>
+ */
+class HtmlEventBalancer {
+
+    private final CleanerProperties properties;
+    private final HtmlEventHandler handler;
+
+    private final List<OpenTag> openTags = new ArrayList<OpenTag>();
+    private final Set<String> encounteredTags = new HashSet<String>();
+
+    /**
+     * Element closed because of the start tag that is being processed; it is
+     * reopened once that start tag gets closed.
+     */
+    private TagNode pendingBreak;
+    private TagNode pendingBreakBy;
+
+    HtmlEventBalancer(CleanerProperties properties, HtmlEventHandler handler) {
+        this.properties = properties;
+        this.handler = handler;
+    }
+
+    void doctype(DoctypeToken doctype) {
+        handler.doctype(doctype);
+    }
+
+    void token(BaseToken token) {
+        if (token instanceof EndTagToken) {
+            endTag((EndTagToken) token);
+        } else if (token instanceof TagNode) {
+            startTag((TagNode) token, false);
+        } else if (token instanceof CommentNode) {
+            handler.comment((CommentNode) token);
+        } else if (token instanceof ContentNode) {
+            handler.text((ContentNode) token);
+        }
+    }
+
+    /**
+     * Closes all the elements that are still open.
+     */
+    void finish() {
+        while (!openTags.isEmpty()) {
+            closeLast();
+        }
+    }
+
+    /**
+     * @return number of elements open at the moment
+     */
+    int getDepth() {
+        return openTags.size();
+    }
+
+    private void startTag(TagNode token, boolean synthesized) {
+        String tagName = token.getName();
+        if (isReservedTag(tagName)) {
+            return;
+        }
+
+        TagInfo tag = getTagInfo(tagName);
+        OpenTag last = getLast();
+        TagInfo lastInfo = last == null ? null : last.info;
+
+        if (tag == null && properties.isOmitUnknownTags() && !isForeignMarkup(tagName)) {
+            return;
+        }
+        if (tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags()) {
+            return;
+        }
+        if (tag == null && lastInfo != null && !lastInfo.allowsAnything()) {
+            closeLast();
+            startTag(token, synthesized);
+            return;
+        }
+        if (tag != null && tag.hasPermittedTags() && someAlreadyOpen(tag.getPermittedTags())) {
+            return;
+        }
+        if (tag != null && tag.isUnique() && encounteredTags.contains(tagName)) {
+            return;
+        }
+        if (!isFatalTagSatisfied(tag)) {
+            return;
+        }
+
+        if (!synthesized && mustAddRequiredParent(tag)) {
+            TagNode requiredParent = new TagNode(tag.getRequiredParentTags().iterator().next());
+            if (isAllowedInLast(requiredParent)) {
+                requiredParent.setAutoGenerated(true);
+                startTag(requiredParent, false);
+                startTag(token, true);
+                return;
+            }
+        } else if (tag != null && last != null && tag.isMustCloseTag(lastInfo)) {
+            OpenTag closed = closeLast();
+            pendingBreak = closed.tag;
+            pendingBreakBy = token;
+            startTag(token, synthesized);
+            pendingBreak = null;
+            pendingBreakBy = null;
+            if (tag.isCopy(closed.name)) {
+                startTag(closed.tag.makeCopy(), false);
+            }
+            return;
+        } else if (!synthesized && !isAllowedInLast(token)) {
+            String preferredChildTag = lastInfo == null ? null : lastInfo.getPreferredChildTag();
+            if (preferredChildTag != null) {
+                TagNode intervening = new TagNode(preferredChildTag);
+                TagInfo interveningInfo = getTagInfo(preferredChildTag);
+                if (isAllowedInLast(intervening) && interveningInfo != null && interveningInfo.allowsItem(token)) {
+                    intervening.setAutoGenerated(true);
+                    startTag(intervening, false);
+                    startTag(token, true);
+                    return;
+                }
+            }
+        }
+
+        handler.startTag(token);
+        if (tag != null && !tag.allowsBody()) {
+            handler.endTag(tagName);
+        } else {
+            OpenTag openTag = new OpenTag(token, tagName, tag);
+            if (pendingBreakBy == token) {
+                openTag.broken = pendingBreak;
+            }
+            openTags.add(openTag);
+            encounteredTags.add(tagName);
+        }
+    }
+
+    private void endTag(EndTagToken token) {
+        String tagName = token.getName();
+        if (tagName == null || isReservedTag(tagName)) {
+            return;
+        }
+
+        TagInfo tag = getTagInfo(tagName);
+        if (tag != null) {
+            tagName = tag.getName();
+        }
+
+        if (tag == null && properties.isOmitUnknownTags() && !isForeignMarkup(tagName)) {
+            return;
+        }
+        if (tag != null && (tag.isDeprecated() && properties.isOmitDeprecatedTags() || !tag.allowsBody())) {
+            return;
+        }
+
+        int index = findTag(tagName, tag);
+        if (index < 0) {
+            return;
+        }
+
+        List<OpenTag> closed = new ArrayList<OpenTag>();
+        while (openTags.size() > index) {
+            closed.add(0, closeLast());
+        }
+
+        OpenTag matching = closed.get(0);
+        if (matching.broken != null) {
+            TagNode copy = matching.broken.makeCopy();
+            copy.setAutoGenerated(true);
+            copy.removeAttribute("id");
+            handler.startTag(copy);
+            openTags.add(new OpenTag(copy, copy.getName(), getTagInfo(copy.getName())));
+        }
+
+        for (int i = 1; i < closed.size(); i++) {
+            OpenTag closedTag = closed.get(i);
+            if (tag != null && tag.isContinueAfter(closedTag.name)) {
+                TagNode copy = closedTag.tag.makeCopy();
+                copy.setAutoGenerated(true);
+                startTag(copy, false);
+            }
+        }
+    }
+
+    private OpenTag closeLast() {
+        OpenTag last = openTags.remove(openTags.size() - 1);
+        handler.endTag(last.name);
+        return last;
+    }
+
+    private OpenTag getLast() {
+        return openTags.isEmpty() ? null : openTags.get(openTags.size() - 1);
+    }
+
+    /**
+     * @return index of the last open element with the specified name, or -1 if there is none
+     * or a fatal tag for the element is open after it.
+     */
+    private int findTag(String tagName, TagInfo tag) {
+        for (int i = openTags.size() - 1; i >= 0; i--) {
+            OpenTag curr = openTags.get(i);
+            if (tagName.equals(curr.name)) {
+                return i;
+            } else if (tag != null && tag.isFatalTag(curr.name)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean someAlreadyOpen(Set<String> tags) {
+        for (OpenTag curr : openTags) {
+            if (tags.contains(curr.name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isFatalTagSatisfied(TagInfo tag) {
+        if (tag == null || tag.getFatalTags().isEmpty()) {
+            return true;
+        }
+        for (String fatalTag : tag.getFatalTags()) {
+            if (findTag(fatalTag, getTagInfo(fatalTag)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean mustAddRequiredParent(TagInfo tag) {
+        if (tag == null || tag.getRequiredParentTags().isEmpty()) {
+            return false;
+        }
+
+        int fatalTagIndex = -1;
+        for (String fatalTag : tag.getFatalTags()) {
+            int index = findTag(fatalTag, getTagInfo(fatalTag));
+            if (index >= 0) {
+                fatalTagIndex = index;
+            }
+        }
+
+        boolean requiredTagMissing = true;
+        for (String requiredTag : tag.getRequiredParentTags()) {
+            int index = findTag(requiredTag, getTagInfo(requiredTag));
+            if (index >= 0) {
+                requiredTagMissing = index <= fatalTagIndex;
+            }
+        }
+        if (!requiredTagMissing) {
+            return false;
+        }
+
+        for (int i = openTags.size() - 1; i >= 0; i--) {
+            if (tag.isHigher(openTags.get(i).name)) {
+                return i <= fatalTagIndex;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAllowedInLast(BaseToken token) {
+        OpenTag last = getLast();
+        return last == null || last.info == null || last.info.allowsItem(token);
+    }
+
+    private TagInfo getTagInfo(String tagName) {
+        return isForeignMarkup(tagName) ? null : properties.getTagInfoProvider().getTagInfo(tagName);
+    }
+
+    private boolean isForeignMarkup(String tagName) {
+        return properties.isNamespacesAware() && tagName.indexOf(':') >= 0;
+    }
+
+    private boolean isReservedTag(String tagName) {
+        return "html".equals(tagName) || "head".equals(tagName) || "body".equals(tagName);
+    }
+
+    /**
+     * Single open element.
+     */
+    private static class OpenTag {
+        private final TagNode tag;
+        private final String name;
+        private final TagInfo info;
+        private TagNode broken;
+
+        OpenTag(TagNode tag, String name, TagInfo info) {
+            this.tag = tag;
+            this.name = name;
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+/**
+ * Receiver of the events produced by {@link HtmlCleaner#parse(java.io.Reader, HtmlEventHandler)}.
+ * <p>Events arrive in document order and are balanced using the rules of the cleaner's
+ * {@link ITagInfoProvider}, so every reported start tag is followed by exactly one matching
+ * end tag. No tree is built; the tag nodes passed to {@link #startTag(TagNode)} carry the
+ * name and attributes of the element only.</p>
+ */
+public interface HtmlEventHandler {
+
+    /**
+     * Called once if the document contains a doctype declaration.
+     *
+     * @param doctype
+     */
+    void doctype(DoctypeToken doctype);
+
+    /**
+     * Called when an element is opened. Elements that are implicitly created while
+     * balancing are marked as auto generated.
+     *
+     * @param tag element with its attributes, but without children
+     */
+    void startTag(TagNode tag);
+
+    /**
+     * Called when an element is closed, either explicitly or while balancing.
+     *
+     * @param name name of the element as reported by {@link #startTag(TagNode)}
+     */
+    void endTag(String name);
+
+    /**
+     * Called for text and CDATA content.
+     *
+     * @param text
+     */
+    void text(ContentNode text);
+
+    /**
+     * Called for comments, unless comments are omitted by the cleaner properties.
+     *
+     * @param comment
+     */
+    void comment(CommentNode comment);
+}
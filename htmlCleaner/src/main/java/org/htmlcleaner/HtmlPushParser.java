@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * <p>Cleans a single document whose content is pushed in chunks, for example while it's
+ * being downloaded.</p>
+ * <p>Every chunk is tokenized and balanced as far as possible as soon as it arrives; text and
+ * comments split between chunks are continued where they stopped, other tokens are read again
+ * once enough of the following content is there. The tree is completed
+ * by {@link #finish()} and is the same as the one {@link HtmlCleaner#clean(String)} produces
+ * for the whole content. Instances are created by {@link HtmlCleaner#newPushParser()} and are
+ * not thread safe.</p>
+ */
+public class HtmlPushParser {
+
+    private static final int DECODE_BUFFER_SIZE = 8 * 1024;
+
+    private final HtmlCleaner cleaner;
+    private final CleanTimeValues cleanTimeValues;
+    private final HtmlTokenizer htmlTokenizer;
+    private final CharsetDecoder decoder;
+
+    /**
+     * Bytes of an incomplete character at the end of the last chunk pushed as bytes.
+     */
+    private ByteBuffer pendingBytes;
+    private CharBuffer decoded;
+    private boolean finished;
+
+    HtmlPushParser(HtmlCleaner cleaner, Charset charset, ParseBudget budget) {
+        this.cleaner = cleaner;
+        this.cleanTimeValues = new CleanTimeValues();
+        this.cleanTimeValues.setBudget(budget);
+        this.htmlTokenizer = cleaner.startPush(cleanTimeValues);
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Pushes the next chunk of the content.
+     *
+     * @param chars
+     * @param offset
+     * @param length
+     */
+    public void feed(char[] chars, int offset, int length) {
+        checkNotFinished();
+        try {
+            htmlTokenizer.push(chars, offset, length);
+        } catch (IOException e) {
+            // should never happen because no reader is involved
+            throw new HtmlCleanerException(e);
+        }
+    }
+
+    /**
+     * Pushes the next chunk of the content.
+     *
+     * @param chars
+     */
+    public void feed(CharSequence chars) {
+        char[] chunk = new char[chars.length()];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = chars.charAt(i);
+        }
+        feed(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Pushes the next chunk of the content as bytes in the charset of this parser. A character
+     * split between two chunks is decoded once the rest of it arrives.
+     *
+     * @param bytes chunk from the current position up to the limit, which is fully consumed
+     */
+    public void feed(ByteBuffer bytes) {
+        checkNotFinished();
+        ByteBuffer input = bytes;
+        if (pendingBytes != null) {
+            input = ByteBuffer.allocate(pendingBytes.remaining() + bytes.remaining());
+            input.put(pendingBytes).put(bytes);
+            input.flip();
+            pendingBytes = null;
+        }
+        decode(input, false);
+        if (input.hasRemaining()) {
+            pendingBytes = ByteBuffer.allocate(input.remaining());
+            pendingBytes.put(input);
+            pendingBytes.flip();
+        }
+    }
+
+    /**
+     * Tokenizes the rest of the content and builds the resulting tree. No more content can be
+     * pushed afterwards.
+     *
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws ParseAbortedException if a limit of the budget of this parser is exceeded or it's cancelled
+     */
+    public TagNode finish() {
+        checkNotFinished();
+        if (decoded != null) {
+            decode(pendingBytes != null ? pendingBytes : ByteBuffer.allocate(0), true);
+            decoder.flush(decoded);
+            feedDecoded();
+            pendingBytes = null;
+        }
+        finished = true;
+        try {
+            htmlTokenizer.finishPush();
+        } catch (IOException e) {
+            // should never happen because no reader is involved
+            throw new HtmlCleanerException(e);
+        }
+        return cleaner.buildTree(htmlTokenizer, cleanTimeValues);
+    }
+
+    private void decode(ByteBuffer input, boolean endOfInput) {
+        if (decoded == null) {
+            decoded = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+        }
+        CoderResult result;
+        do {
+            result = decoder.decode(input, decoded, endOfInput);
+            feedDecoded();
+        } while (result.isOverflow());
+    }
+
+    private void feedDecoded() {
+        if (decoded.position() > 0) {
+            feed(decoded.array(), 0, decoded.position());
+            decoded.clear();
+        }
+    }
+
+    private void checkNotFinished() {
+        if (finished) {
+            throw new HtmlCleanerException("The push parser is already finished");
+        }
+    }
+}
@@ -13,9 +13,13 @@
 
 package org.htmlcleaner;
 
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -35,8 +39,14 @@ public class HtmlTokenizer {
 
     private final static int WORKING_BUFFER_SIZE = 1024;
 
-    private BufferedReader _reader;
-    private char[] _working = new char[WORKING_BUFFER_SIZE];
+    /**
+     * The working buffer doubles on every refill until it reaches this size, so large
+     * documents are read in big chunks while small ones keep a small buffer.
+     */
+    private final static int MAX_WORKING_BUFFER_SIZE = 64 * 1024;
+
+    private Reader _reader;
+    private char[] _working;
 
     private transient int _pos;
     private transient int _len = -1;
@@ -44,23 +54,86 @@ public class HtmlTokenizer {
     private transient int _col = 1;
 
 
-    private transient StringBuffer _saved = new StringBuffer(512);
+    private transient CharAccumulator _saved = new CharAccumulator(512);
+    private transient char[] _identifier = new char[32];
+    private transient NameTable _names;
 
     private transient boolean _isLateForDoctype;
     private transient DoctypeToken _docType;
     private transient TagToken _currentTagToken;
-    private transient List<BaseToken> _tokenList = new ArrayList<BaseToken>();
+    private transient TokenList<BaseToken> _tokenList;
     private transient Set<String> _namespacePrefixes = new HashSet<String>();
 
     private boolean _asExpected = true;
 
     private boolean _isSpecialContext;
     private String _isSpecialContextName;
+    private boolean _isSpecialEmpty;
 
     private HtmlCleaner cleaner;
     private CleanerProperties props;
     private CleanerTransformations transformations;
     private CleanTimeValues cleanTimeValues;
+    private HtmlEventBalancer eventBalancer;
+    private BaseToken _lastToken;
+
+    /**
+     * Number of tokens between two checks of the interruption and the parse budget.
+     */
+    private final static int BUDGET_CHECK_INTERVAL = 256;
+
+    private transient int _tokenCount;
+    private transient boolean _stopped;
+
+    /**
+     * Set while content is pushed in chunks and more of it is expected. Tokens of the current
+     * step are kept in the pending list until the step completes, as the step is abandoned and
+     * read again when it runs out of content.
+     */
+    private transient boolean _needsInput;
+    private transient List<BaseToken> _pendingTokens;
+
+    private final static int NO_RUN = 0;
+    private final static int CONTENT_RUN = 1;
+    private final static int COMMENT_RUN = 2;
+
+    /**
+     * Set while a text or comment run is read. If the run reaches the end of the pushed content,
+     * it is continued from there on the next push instead of being read again from its start.
+     */
+    private transient int _pendingRun;
+
+    /**
+     * Number of unread pushed chars needed before an abandoned step is tried again. It's twice
+     * the number there was on the last attempt, so a long token split into many chunks is only
+     * read a few times.
+     */
+    private transient int _retryLength;
+
+    /**
+     * Lower case names of the pruned tags whose content is skipped, null if there are none.
+     */
+    private Set<String> _skippedTagNames;
+
+    /**
+     * Start tag of the special context just entered, if its content may be skipped.
+     */
+    private transient TagNode _skippedTagToken;
+
+    /**
+     * Chars of the special context being skipped, null when no content is skipped.
+     */
+    private transient StringBuilder _skippedChars;
+
+    /**
+     * Content skipped so far, kept until it's known whether its start tag got pruned.
+     */
+    private transient List<SkippedContent> _skippedContents = new ArrayList<SkippedContent>();
+
+    /**
+     * Set while skipped content is read again, collects its tokens instead of building the tree.
+     */
+    private transient List<BaseToken> _restoredTokens;
 
 
     /**
@@ -70,27 +143,211 @@ public class HtmlTokenizer {
      * @param reader
      */
     public HtmlTokenizer(HtmlCleaner cleaner, Reader reader, final CleanTimeValues cleanTimeValues) {
-        this._reader = new BufferedReader(reader);
+        //
+        // Readers that already buffer and support mark/reset are used as they are
+        //
+        this._reader = reader instanceof BufferedReader || reader instanceof ByteBufferReader ? reader : new BufferedReader(reader);
+        this.cleaner = cleaner;
+        this.props = cleaner.getProperties();
+        this.transformations = cleaner.getTransformations();
+        this.cleanTimeValues = cleanTimeValues;
+        this._skippedTagNames = getSkippedTagNames(props);
+        takeBuffers(WORKING_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor - creates instance of the parser scanning the specified content directly.
+     * The content is copied once into the working array, which then holds the whole document,
+     * so no reader and no buffer refills are involved.
+     *
+     * @param cleaner
+     * @param content
+     */
+    HtmlTokenizer(HtmlCleaner cleaner, CharSequence content, final CleanTimeValues cleanTimeValues) {
         this.cleaner = cleaner;
         this.props = cleaner.getProperties();
         this.transformations = cleaner.getTransformations();
         this.cleanTimeValues = cleanTimeValues;
+        this._skippedTagNames = getSkippedTagNames(props);
+
+        int length = content.length();
+        //
+        // One extra char, as some checks peek at the position right after the end of the content
+        //
+        takeBuffers(length + 1);
+        _working[length] = 0;
+        if (content instanceof String) {
+            ((String) content).getChars(0, length, _working, 0);
+        } else if (content instanceof StringBuilder) {
+            ((StringBuilder) content).getChars(0, length, _working, 0);
+        } else if (content instanceof CharBuffer) {
+            ((CharBuffer) content).duplicate().get(_working, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                _working[i] = content.charAt(i);
+            }
+        }
+        this._len = length;
+        sanitize(0, length);
+    }
+
+    /**
+     * Takes the working buffer, name table and token list kept in the clean time values, which
+     * a {@link CleanSession} keeps from one document to the next, or creates them.
+     *
+     * @param workingSize minimal size of the working buffer
+     */
+    private void takeBuffers(int workingSize) {
+        if (cleanTimeValues.names == null) {
+            cleanTimeValues.names = new NameTable(cleaner.getTagInfoProvider());
+            cleanTimeValues.tokenList = new TokenList<BaseToken>();
+        }
+        _names = cleanTimeValues.names;
+        _tokenList = cleanTimeValues.tokenList;
+
+        char[] working = cleanTimeValues.workingBuffer;
+        if (working == null || working.length < workingSize) {
+            working = new char[workingSize];
+            cleanTimeValues.workingBuffer = working;
+        }
+        _working = working;
+    }
+
+    private static Set<String> getSkippedTagNames(CleanerProperties props) {
+        if (!props.isSkipPrunedContent()) {
+            return null;
+        }
+        Set<String> names = null;
+        for (ITagNodeCondition condition : props.getPruneTagSet()) {
+            if (condition instanceof TagNodeNameCondition) {
+                String name = ((TagNodeNameCondition) condition).getName();
+                if (name != null) {
+                    if (names == null) {
+                        names = new HashSet<String>();
+                    }
+                    names.add(name.toLowerCase());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Makes the tokenizer report balanced tokens to the specified balancer instead of building the tree.
+     *
+     * @param eventBalancer
+     */
+    void setEventBalancer(HtmlEventBalancer eventBalancer) {
+        this.eventBalancer = eventBalancer;
     }
 
     private void addToken(BaseToken token) {
+        if (_stopped) {
+            return;
+        }
         token.setRow(_row);
         token.setCol(_col);
-        _tokenList.add(token);
-        cleaner.makeTree(_tokenList, _tokenList.listIterator(_tokenList.size() - 1), this.cleanTimeValues);
+        if (_pendingTokens != null) {
+            _pendingTokens.add(token);
+        } else {
+            processToken(token);
+        }
+    }
+
+    private void processToken(BaseToken token) {
+        if (_stopped) {
+            return;
+        }
+        if (_tokenCount == cleanTimeValues.maxTokens) {
+            cleanTimeValues.abortReason = ParseAbortedException.Reason.TOKEN_LIMIT;
+            _stopped = true;
+            return;
+        }
+        _lastToken = token;
+        if (eventBalancer != null) {
+            eventBalancer.token(token);
+            if (eventBalancer.getDepth() > cleanTimeValues.maxDepth) {
+                cleanTimeValues.abortReason = ParseAbortedException.Reason.DEPTH_LIMIT;
+            }
+        } else if (_restoredTokens != null) {
+            _restoredTokens.add(token);
+        } else {
+            _tokenList.add(token);
+            cleaner.makeTree(_tokenList, _tokenList.listIterator(_tokenList.size() - 1), this.cleanTimeValues);
+            if (_tokenList.isCompactingDue()) {
+                _tokenList.compact();
+            }
+            if (cleanTimeValues.targetConditions != null && cleaner.areTargetsFound(_tokenList, cleanTimeValues)) {
+                _stopped = true;
+            }
+        }
+
+        if (++_tokenCount % BUDGET_CHECK_INTERVAL == 0) {
+            checkBudget();
+        }
+        if (cleanTimeValues.abortReason != null) {
+            _stopped = true;
+        }
+    }
+
+    /**
+     * Checks for thread interruption and for cancellation or timeout of the parse budget.
+     * Called every {@link #BUDGET_CHECK_INTERVAL} tokens rather than in the scanning loops.
+     */
+    private void checkBudget() {
+        if (Thread.currentThread().isInterrupted()) {
+            handleInterruption();
+            _tokenList.clear();
+            _namespacePrefixes.clear();
+            _stopped = true;
+            return;
+        }
+        ParseBudget budget = cleanTimeValues.budget;
+        if (budget != null) {
+            if (budget.isCancelled()) {
+                cleanTimeValues.abortReason = ParseAbortedException.Reason.CANCELLED;
+            } else if (System.currentTimeMillis() > cleanTimeValues.deadline) {
+                cleanTimeValues.abortReason = ParseAbortedException.Reason.TIME_LIMIT;
+            }
+        }
+    }
+
+    /**
+     * @return the last token added, as it remained in the token list after balancing
+     */
+    private BaseToken getLastToken() {
+        //
+        // Only asked for at the end of a step, so the pending tokens are final
+        //
+        if (_pendingTokens != null) {
+            flushPendingTokens();
+        }
+        if (eventBalancer != null || _restoredTokens != null) {
+            return _lastToken;
+        }
+        BaseToken lastToken = _tokenList.get(_tokenList.size() - 1);
+        if (lastToken == null && _lastToken == cleanTimeValues.lastAttachedToken) {
+            //
+            // Already added to its open tag
+            //
+            return _lastToken;
+        }
+        return lastToken;
     }
 
     private void readIfNeeded(int neededChars) throws IOException {
-        if (_len == -1 && _pos + neededChars >= WORKING_BUFFER_SIZE) {
-            int numToCopy = WORKING_BUFFER_SIZE - _pos;
-            System.arraycopy(_working, _pos, _working, 0, numToCopy);
+        if (_len == -1 && _pos + neededChars >= _working.length) {
+            int numToCopy = _working.length - _pos;
+            if (_working.length < MAX_WORKING_BUFFER_SIZE) {
+                char[] grown = new char[_working.length * 2];
+                System.arraycopy(_working, _pos, grown, 0, numToCopy);
+                _working = grown;
+            } else {
+                System.arraycopy(_working, _pos, _working, 0, numToCopy);
+            }
             _pos = 0;
 
-            int expected = WORKING_BUFFER_SIZE - numToCopy;
+            int expected = _working.length - numToCopy;
             int size = 0;
             int charsRead = 0;
             int offset = numToCopy;
@@ -108,15 +365,90 @@ public class HtmlTokenizer {
 
             }
 
-            // convert invalid XML characters to spaces or the UTF replacement character
-            for (int i = 0; i < (_len >= 0 ? _len : WORKING_BUFFER_SIZE); i++) {
-                int ch = _working[i];
-                if (ch >= 1 && ch <= 32 && ch != 10 && ch != 13) {
-                    _working[i] = ' ';
-                }
-                if (ch == 0) {
-                    _working[i] = '\uFFFD';
-                }
+            // the chars kept from the previous window are already sanitized
+            sanitize(numToCopy, getAvailable());
+        }
+    }
+
+    /**
+     * @return number of valid chars in the working buffer
+     */
+    private int getAvailable() {
+        return _len >= 0 ? _len : _working.length;
+    }
+
+    /**
+     * Counts the chars from the current position on which are none of the specified stop chars,
+     * without reading past the chars that are already in the working buffer.
+     */
+    private int countRun(char stop1, char stop2) {
+        int end = getAvailable();
+        int i = _pos;
+        while (i < end) {
+            char ch = _working[i];
+            if (ch == stop1 || ch == stop2) {
+                break;
+            }
+            i++;
+        }
+        return i - _pos;
+    }
+
+    /**
+     * Saves the specified number of chars from the current position to the temporary buffer
+     * at once and moves the current position after them.
+     *
+     * @throws IOException
+     */
+    private void saveRun(int size) throws IOException {
+        if (size > 0) {
+            _saved.append(_working, _pos, size);
+            skipRun(size);
+        }
+    }
+
+    /**
+     * Moves the current position over the specified number of chars, updating the coordinates
+     * the same way as saving them would.
+     *
+     * @throws IOException
+     */
+    private void skipRun(int size) throws IOException {
+        if (size <= 0) {
+            return;
+        }
+        if (_skippedChars != null) {
+            _skippedChars.append(_working, _pos, size);
+        }
+        int end = _pos + size;
+        int lastLineBreak = -1;
+        for (int i = _pos; i < end; i++) {
+            if (_working[i] == '\n') {
+                _row++;
+                lastLineBreak = i;
+            }
+        }
+        if (lastLineBreak >= 0) {
+            _col = end - lastLineBreak;
+        } else {
+            _col += size;
+        }
+        _pos = end;
+        readIfNeeded(0);
+    }
+
+    /**
+     * Converts invalid XML characters in the specified range of the working buffer
+     * to spaces or the UTF replacement character.
+     */
+    private void sanitize(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int ch = _working[i];
+            if (ch >= 1 && ch <= 32 && ch != 10 && ch != 13) {
+                _working[i] = ' ';
+            }
+            if (ch == 0) {
+                _working[i] = '\uFFFD';
             }
         }
     }
@@ -134,6 +466,9 @@ public class HtmlTokenizer {
     }
 
     private void go(int step) throws IOException {
+        if (_skippedChars != null && step > 0) {
+            _skippedChars.append(_working, _pos, step);
+        }
         _pos += step;
         readIfNeeded(step - 1);
         //
@@ -153,7 +488,7 @@ public class HtmlTokenizer {
     private boolean startsWith(String value) throws IOException {
         int valueLen = value.length();
         readIfNeeded(valueLen);
-        if (_len >= 0 && _pos + valueLen > _len) {
+        if (isEnd(_pos + valueLen - 1)) {
             return false;
         }
 
@@ -175,7 +510,7 @@ public class HtmlTokenizer {
      * @return true is whitespace, false otherwise.
      */
     private boolean isWhitespace(int position) {
-        if (_len >= 0 && position >= _len) {
+        if (isEnd(position)) {
             return false;
         }
 
@@ -199,7 +534,7 @@ public class HtmlTokenizer {
      * @return true is equals, false otherwise.
      */
     private boolean isChar(int position, char ch) {
-        if (_len >= 0 && position >= _len) {
+        if (isEnd(position)) {
             return false;
         }
 
@@ -223,7 +558,7 @@ public class HtmlTokenizer {
      * @return true is may be identifier start, false otherwise.
      */
     private boolean isElementIdentifierStartChar(int position) {
-        if (_len >= 0 && position >= _len) {
+        if (isEnd(position)) {
             return false;
         }
 
@@ -240,6 +575,9 @@ public class HtmlTokenizer {
         //
         // Bizarrely, HTML allows '<' in attribute names. However, it can't start with one.
         //
+        if (isEnd(_pos)) {
+            return false;
+        }
         char ch = _working[_pos];
         if (ch == '<') return false;
         //
@@ -259,7 +597,7 @@ public class HtmlTokenizer {
     private boolean isHtmlElementIdentifier(int position) {
         if (!isHtmlAttributeIdentifierChar(position)) return false;
 
-        if (_len >= 0 && position >= _len) {
+        if (isEnd(position)) {
             return false;
         }
 
@@ -303,7 +641,7 @@ public class HtmlTokenizer {
         // U+003D EQUALS SIGN (=)
         // See: https://html.spec.whatwg.org/multipage/syntax.html#attributes-2
 
-        if (_len >= 0 && position >= _len) {
+        if (isEnd(position)) {
             return false;
         }
 
@@ -325,7 +663,24 @@ public class HtmlTokenizer {
      * Checks if end of the content is reached.
      */
     private boolean isAllRead() {
-        return _len >= 0 && _pos >= _len;
+        return _stopped || isEnd(_pos);
+    }
+
+    /**
+     * Checks if the specified position is past the end of the content. When more content is
+     * going to be pushed, the current token can't be decided yet, so the step is abandoned.
+     *
+     * @param position
+     * @return true if there is no character at the position
+     */
+    private boolean isEnd(int position) {
+        if (_len >= 0 && position >= _len) {
+            if (_needsInput) {
+                throw NeedMoreInput.INSTANCE;
+            }
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -392,8 +747,8 @@ public class HtmlTokenizer {
 
     private boolean addSavedAsContent() {
         if (_saved.length() > 0) {
-            addToken(new ContentNode(props.isDeserializeEntities() ? Utils.deserializeEntities(_saved.toString(), props.isRecognizeUnicodeChars()) : _saved.toString()));
-            _saved.delete(0, _saved.length());
+            addToken(new ContentNode(props.isDeserializeEntities() ? _saved.toDeserializedString(props.isRecognizeUnicodeChars()) : _saved.toString()));
+            _saved.clear();
             return true;
         }
 
@@ -406,91 +761,244 @@ public class HtmlTokenizer {
      * @throws IOException
      */
     void start() throws IOException {
+        init();
+
+        if (_reader != null) {
+            this._pos = _working.length;
+            readIfNeeded(0);
+        }
+
+        while (!isAllRead()) {
+            step();
+        }
+
+        closeReader();
+    }
+
+    private void init() {
         // initialize runtime values
         _currentTagToken = null;
         _tokenList.clear();
         _asExpected = true;
         _isSpecialContext = false;
         _isLateForDoctype = false;
+        _isSpecialEmpty = true;
+        _skippedTagToken = null;
+        _skippedChars = null;
+        _skippedContents.clear();
+        _pendingRun = NO_RUN;
+        _retryLength = 0;
         _namespacePrefixes.clear();
+        _tokenCount = 0;
+        _stopped = false;
+        _pos = 0;
+    }
 
-        this._pos = WORKING_BUFFER_SIZE;
-        readIfNeeded(0);
-
-        boolean isSpecialEmpty = true;
+    /**
+     * Reads a single token, or a few tokens that are decided together, from the current position.
+     *
+     * @throws IOException
+     */
+    private void step() throws IOException {
+        // resets all the runtime values
+        _saved.clear();
+        _currentTagToken = null;
+        _asExpected = true;
 
-        while (!isAllRead()) {
-            if (Thread.currentThread().isInterrupted()) {
-                this.handleInterruption();
-                _tokenList.clear();
-                _namespacePrefixes.clear();
-                _reader.close();
-                return;
+        // this is enough for making decision
+        readIfNeeded(10);
+
+        if (_isSpecialContext) {
+            int nameLen = _isSpecialContextName.length();
+            if (startsWith("</" + _isSpecialContextName) && (isWhitespace(_pos + nameLen + 2) || isChar(_pos + nameLen + 2, '>'))) {
+                tagEnd();
+            } else if (isContentSkipped()) {
+                skipSpecialContent();
+            } else if (_isSpecialEmpty && startsWith("<!--")) {
+                comment();
+            } else if (startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
+                cdata();
+            } else {
+                updateSpecialEmpty(content());
             }
-            // resets all the runtime values
-            _saved.delete(0, _saved.length());
-            _currentTagToken = null;
-            _asExpected = true;
-
-            // this is enough for making decision
-            readIfNeeded(10);
-
-            if (_isSpecialContext) {
-                int nameLen = _isSpecialContextName.length();
-                if (startsWith("</" + _isSpecialContextName) && (isWhitespace(_pos + nameLen + 2) || isChar(_pos + nameLen + 2, '>'))) {
-                    tagEnd();
-                } else if (isSpecialEmpty && startsWith("<!--")) {
-                    comment();
-                } else if (startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
-                    cdata();
+            if (!_isSpecialContext) {
+                _isSpecialEmpty = true;
+            }
+        } else {
+            if (startsWith("<!doctype")) {
+                if (!_isLateForDoctype) {
+                    doctype();
+                    _isLateForDoctype = true;
                 } else {
-                    boolean isTokenAdded = content();
-                    if (isSpecialEmpty && isTokenAdded) {
-                        final BaseToken lastToken = (BaseToken) _tokenList.get(_tokenList.size() - 1);
-                        if (lastToken != null) {
-                            final String lastTokenAsString = lastToken.toString();
-                            if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
-                                isSpecialEmpty = false;
-                            }
-                        }
-                    }
+                    ignoreUntil('<');
                 }
-                if (!_isSpecialContext) {
-                    isSpecialEmpty = true;
+            } else if (startsWith("</") && isElementIdentifierStartChar(_pos + 2)) {
+                _isLateForDoctype = true;
+                tagEnd();
+            } else if (startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
+                cdata();
+            } else if (startsWith("<!--")) {
+                comment();
+            } else if (startsWith("<") && isElementIdentifierStartChar(_pos + 1)) {
+                _isLateForDoctype = true;
+                tagStart();
+            } else if (props.isIgnoreQuestAndExclam() && (startsWith("<!") || startsWith("<?"))) {
+                ignoreUntil('<');
+                if (isChar('>')) {
+                    go();
                 }
+            } else if (startsWith("<?xml")) {
+                ignoreUntil('<');
             } else {
-                if (startsWith("<!doctype")) {
-                    if (!_isLateForDoctype) {
-                        doctype();
-                        _isLateForDoctype = true;
-                    } else {
-                        ignoreUntil('<');
-                    }
-                } else if (startsWith("</") && isElementIdentifierStartChar(_pos + 2)) {
-                    _isLateForDoctype = true;
-                    tagEnd();
-                } else if (startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
-                    cdata();
-                } else if (startsWith("<!--")) {
-                    comment();
-                } else if (startsWith("<") && isElementIdentifierStartChar(_pos + 1)) {
-                    _isLateForDoctype = true;
-                    tagStart();
-                } else if (props.isIgnoreQuestAndExclam() && (startsWith("<!") || startsWith("<?"))) {
-                    ignoreUntil('<');
-                    if (isChar('>')) {
-                        go();
-                    }
-                } else if (startsWith("<?xml")) {
-                    ignoreUntil('<');
+                content();
+            }
+        }
+    }
+
+    /**
+     * The special context stays empty until content other than whitespace is read in it.
+     *
+     * @param isTokenAdded true if the content just read was added as a token
+     */
+    private void updateSpecialEmpty(boolean isTokenAdded) {
+        if (_isSpecialEmpty && isTokenAdded) {
+            final BaseToken lastToken = getLastToken();
+            if (lastToken != null) {
+                final String lastTokenAsString = lastToken.toString();
+                if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
+                    _isSpecialEmpty = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Continues the text or comment run that reached the end of the pushed content.
+     *
+     * @throws IOException
+     */
+    private void resumeRun() throws IOException {
+        if (_pendingRun == COMMENT_RUN) {
+            commentRun();
+        } else {
+            boolean isTokenAdded = contentRun();
+            if (_isSpecialContext) {
+                updateSpecialEmpty(isTokenAdded);
+            }
+        }
+    }
+
+    /**
+     * Prepares the tokenizer for content pushed in chunks by {@link #push(char[], int, int)}.
+     */
+    void startPush() {
+        init();
+        _len = 0;
+        _needsInput = true;
+        _pendingTokens = new ArrayList<BaseToken>();
+    }
+
+    /**
+     * Appends the specified chunk to the content and tokenizes as far as the content allows.
+     * A text or comment run cut by the end of the chunk is continued on the next call, other
+     * tokens that can't be decided before more content arrives are read again.
+     *
+     * @throws IOException
+     */
+    void push(char[] chunk, int off, int len) throws IOException {
+        if (_stopped) {
+            return;
+        }
+        //
+        // Tokenizing stops at a step boundary, or within a run whose chars are already saved,
+        // so the consumed content can be dropped
+        //
+        int remaining = _len - _pos;
+        if (remaining + len + 1 > _working.length) {
+            char[] grown = new char[Math.max(_working.length * 2, remaining + len + 1)];
+            System.arraycopy(_working, _pos, grown, 0, remaining);
+            _working = grown;
+        } else if (_pos > 0) {
+            System.arraycopy(_working, _pos, _working, 0, remaining);
+        }
+        _pos = 0;
+        System.arraycopy(chunk, off, _working, remaining, len);
+        _len = remaining + len;
+        _working[_len] = 0;
+        sanitize(remaining, _len);
+        if (_len < _retryLength) {
+            return;
+        }
+
+        while (!_stopped && _pos < _len) {
+            int pos = _pos;
+            int row = _row;
+            int col = _col;
+            boolean isSpecialContext = _isSpecialContext;
+            String isSpecialContextName = _isSpecialContextName;
+            boolean isSpecialEmpty = _isSpecialEmpty;
+            boolean isLateForDoctype = _isLateForDoctype;
+            DoctypeToken docType = _docType;
+            TagNode skippedTagToken = _skippedTagToken;
+            try {
+                if (_pendingRun != NO_RUN) {
+                    resumeRun();
                 } else {
-                    content();
+                    step();
+                }
+                flushPendingTokens();
+                _retryLength = 0;
+            } catch (NeedMoreInput e) {
+                _pendingTokens.clear();
+                if (_pendingRun != NO_RUN) {
+                    return;
                 }
+                _pos = pos;
+                _row = row;
+                _col = col;
+                _isSpecialContext = isSpecialContext;
+                _isSpecialContextName = isSpecialContextName;
+                _isSpecialEmpty = isSpecialEmpty;
+                _isLateForDoctype = isLateForDoctype;
+                _docType = docType;
+                _skippedTagToken = skippedTagToken;
+                _skippedChars = null;
+                _retryLength = 2 * (_len - _pos);
+                return;
             }
         }
+    }
+
+    /**
+     * Tokenizes the rest of the pushed content, which is known to be complete now.
+     *
+     * @throws IOException
+     */
+    void finishPush() throws IOException {
+        _needsInput = false;
+        _pendingTokens = null;
+        if (_pendingRun != NO_RUN) {
+            resumeRun();
+        }
+        while (!isAllRead()) {
+            step();
+        }
+    }
 
+    private void flushPendingTokens() {
+        List<BaseToken> pendingTokens = _pendingTokens;
+        _pendingTokens = null;
+        for (BaseToken token : pendingTokens) {
+            processToken(token);
+        }
+        pendingTokens.clear();
+        _pendingTokens = pendingTokens;
+    }
 
-        _reader.close();
+    private void closeReader() throws IOException {
+        if (_reader != null) {
+            _reader.close();
+        }
     }
 
     /**
@@ -531,7 +1039,7 @@ public class HtmlTokenizer {
             }
         }
 
-        TagNode tagNode = new TagNode(tagName);
+        TagNode tagNode = new TagNode(tagName, tagName == null ? null : _names.toLowerCase(tagName));
         tagNode.setTrimAttributeValues(props.isTrimAttributeValues());
         _currentTagToken = tagNode;
 
@@ -551,6 +1059,7 @@ public class HtmlTokenizer {
                 if (props.isUseCdataFor(tagName)) {
                     _isSpecialContext = true;
                     _isSpecialContextName = tagName;
+                    _skippedTagToken = isSkippedTag(originalTagName, tagName) ? tagNode : null;
                 }
             } else if (startsWith("/>")) {
                 go(2);
@@ -568,6 +1077,184 @@ public class HtmlTokenizer {
     }
 
 
+    /**
+     * Checks if the content of the specified tag, which is kept as CDATA, is skipped rather than
+     * pruned from the finished tree. The reserved tags are never skipped, as their content is
+     * moved by the cleaner.
+     */
+    private boolean isSkippedTag(String originalTagName, String tagName) {
+        return _skippedTagNames != null && tagName != null && tagName.equalsIgnoreCase(originalTagName)
+                && _skippedTagNames.contains(_names.toLowerCase(tagName)) && !isReservedTag(tagName);
+    }
+
+    /**
+     * Checks if the content of the special context just entered is skipped. It is, if its start
+     * tag is pruned by name and has been opened where it stands, so that all of the content up to
+     * its end tag would become its children and be pruned together with it. A tag moved by the
+     * balancing, or to head section, leaves its content in place, and that content is read as usual.
+     */
+    private boolean isContentSkipped() {
+        if (_skippedTagToken != null && (eventBalancer != null || !cleaner.isContentSkippable(_skippedTagToken, cleanTimeValues))) {
+            _skippedTagToken = null;
+        }
+        return _skippedTagToken != null;
+    }
+
+    /**
+     * Moves over the content of the current special context, stopping at its end tag, which is
+     * read as usual. Comments and CDATA sections are recognized the same way as in
+     * {@link #step()}, so an end tag within them doesn't end the content.
+     *
+     * @throws IOException
+     */
+    private void skipSpecialContent() throws IOException {
+        String endTag = "</" + _isSpecialContextName;
+        int nameLen = _isSpecialContextName.length();
+        SkippedContent skipped = new SkippedContent(_skippedTagToken, _isSpecialContextName, _row, _col, _isSpecialEmpty);
+        _skippedTagToken = null;
+        _skippedChars = new StringBuilder();
+
+        while (!isAllRead()) {
+            if (startsWith(endTag) && (isWhitespace(_pos + nameLen + 2) || isChar(_pos + nameLen + 2, '>'))) {
+                break;
+            } else if (_isSpecialEmpty && startsWith("<!--")) {
+                go(4);
+                skipUntil("-->");
+            } else if (startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
+                skipCData();
+            } else {
+                _isSpecialEmpty = _isSpecialEmpty && _working[_pos] <= ' ';
+                skipRun(1);
+
+                //
+                // Only '<' and '/' can start anything but content, skip the rest in one go
+                //
+                int run = countRun('<', '/');
+                for (int i = _pos; _isSpecialEmpty && i < _pos + run; i++) {
+                    _isSpecialEmpty = _working[i] <= ' ';
+                }
+                skipRun(run);
+            }
+        }
+
+        skipped.content = _skippedChars.toString();
+        _skippedChars = null;
+        _skippedContents.add(skipped);
+    }
+
+    /**
+     * Reads the skipped content again for the start tags that were not pruned after all, as the
+     * pruning doesn't reach the tags moved to head section or out of the place they were opened
+     * in, and adds the resulting tokens to them. The skipped content is released afterwards.
+     */
+    void restoreSkippedContent() {
+        for (SkippedContent skipped : _skippedContents) {
+            if (!isInPrunedNode(skipped.tagToken)) {
+                try {
+                    skipped.tagToken.addChildren(readSkippedContent(skipped));
+                } catch (IOException e) {
+                    // should never happen because no reader is involved
+                    throw new HtmlCleanerException(e);
+                }
+            }
+        }
+        _skippedContents.clear();
+    }
+
+    private static boolean isInPrunedNode(TagNode tagNode) {
+        for (TagNode node = tagNode; node != null; node = node.getParent()) {
+            if (node.isPruned()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return tokens of the skipped content, read the same way as in the special context
+     * it was skipped in
+     * @throws IOException
+     */
+    private List<BaseToken> readSkippedContent(SkippedContent skipped) throws IOException {
+        HtmlTokenizer tokenizer = new HtmlTokenizer(cleaner, skipped.content, new CleanTimeValues());
+        tokenizer._restoredTokens = new ArrayList<BaseToken>();
+        tokenizer._isSpecialContext = true;
+        tokenizer._isSpecialContextName = skipped.tagName;
+        tokenizer._isSpecialEmpty = skipped.isSpecialEmpty;
+        tokenizer._row = skipped.row;
+        tokenizer._col = skipped.col;
+        while (!tokenizer.isAllRead()) {
+            tokenizer.step();
+        }
+        return tokenizer._restoredTokens;
+    }
+
+    /**
+     * Moves over CDATA section in the special context, the same way {@link #cdata()} reads it.
+     *
+     * @throws IOException
+     */
+    private void skipCData() throws IOException {
+        if (startsWith(CData.SAFE_BEGIN_CDATA)) {
+            go(CData.SAFE_BEGIN_CDATA.length());
+        } else if (startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
+            go(CData.SAFE_BEGIN_CDATA_ALT.length());
+        } else {
+            go(CData.BEGIN_CDATA.length());
+        }
+
+        if (!containsEndCData()) {
+            return;
+        }
+
+        while (!isAllRead() &&
+                !startsWith(CData.SAFE_END_CDATA) &&
+                !startsWith(CData.END_CDATA) &&
+                !startsWith(CData.SAFE_END_CDATA_ALT)
+        ) {
+            skipRun(1);
+            skipRun(countRun(']', '/'));
+        }
+
+        if (startsWith(CData.SAFE_END_CDATA)) {
+            go(CData.SAFE_END_CDATA.length());
+        } else if (startsWith(CData.SAFE_END_CDATA_ALT)) {
+            go(CData.SAFE_END_CDATA_ALT.length());
+        } else if (startsWith(CData.END_CDATA)) {
+            go(CData.END_CDATA.length());
+        }
+    }
+
+    /**
+     * Moves the current position after the specified value, or to the end of the content
+     * if the value is not found.
+     *
+     * @throws IOException
+     */
+    private void skipUntil(String value) throws IOException {
+        int valueLen = value.length();
+        while (true) {
+            int index = indexOf(value, _pos);
+            if (index >= 0) {
+                skipRun(index - _pos);
+                go(valueLen);
+                return;
+            }
+            if (_len >= 0) {
+                if (_needsInput) {
+                    throw NeedMoreInput.INSTANCE;
+                }
+                skipRun(_len - _pos);
+                return;
+            }
+            //
+            // Keep the chars that may start the value and read on
+            //
+            skipRun(Math.max(0, getAvailable() - _pos - valueLen + 1));
+            readIfNeeded(valueLen);
+        }
+    }
+
     /**
      * Parses end of the tag.
      * It expects that current position is at the "<" after which
@@ -654,41 +1341,54 @@ public class HtmlTokenizer {
             return null;
         }
 
-        StringBuffer identifierValue = new StringBuffer();
-
+        int length = 0;
         while (!isAllRead() && (attribute && isHtmlAttributeIdentifierChar() || !attribute && isHtmlElementIdentifier())) {
             saveCurrent();
-            identifierValue.append(_working[_pos]);
+            if (length == _identifier.length) {
+                char[] identifier = new char[length * 2];
+                System.arraycopy(_identifier, 0, identifier, 0, length);
+                _identifier = identifier;
+            }
+            _identifier[length++] = _working[_pos];
             go();
         }
 
-        if (identifierValue.length() == 0) {
+        if (length == 0) {
             return null;
         }
 
-        String id = identifierValue.toString();
+        int columnIndex = indexOf(_identifier, ':', 0, length);
+        if (columnIndex < 0) {
+            return _names.lookup(_identifier, 0, length);
+        }
 
-        int columnIndex = id.indexOf(':');
-        if (columnIndex >= 0) {
-            String prefix = id.substring(0, columnIndex);
-            String suffix = id.substring(columnIndex + 1);
-            int nextColumnIndex = suffix.indexOf(':');
-            if (nextColumnIndex >= 0) {
-                suffix = suffix.substring(0, nextColumnIndex);
-            }
-            if (props.isNamespacesAware()) {
-                id = prefix + ":" + suffix;
-                if (!"xmlns".equalsIgnoreCase(prefix)) {
-                    _namespacePrefixes.add(prefix.toLowerCase());
-                }
-            } else {
-                id = suffix;
+        int suffixEnd = indexOf(_identifier, ':', columnIndex + 1, length);
+        if (suffixEnd < 0) {
+            suffixEnd = length;
+        }
+        String id;
+        if (props.isNamespacesAware()) {
+            id = _names.lookup(_identifier, 0, suffixEnd);
+            String prefix = _names.lookup(_identifier, 0, columnIndex);
+            if (!"xmlns".equalsIgnoreCase(prefix)) {
+                _namespacePrefixes.add(_names.toLowerCase(prefix));
             }
+        } else {
+            id = _names.lookup(_identifier, columnIndex + 1, suffixEnd - columnIndex - 1);
         }
 
         return id;
     }
 
+    private static int indexOf(char[] chars, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Parses list tag attributes from the current position.
      *
@@ -696,11 +1396,6 @@ public class HtmlTokenizer {
      */
     private void tagAttributes() throws IOException {
         while (!isAllRead() && _asExpected && !isChar('>') && !startsWith("/>")) {
-            if (Thread.currentThread().isInterrupted()) {
-                // Interruption: risk to take a lot of time in case of damaged file
-                handleInterruption();
-                return;
-            }
             skipWhitespaces();
             String attName = identifier(true);
 
@@ -797,11 +1492,30 @@ public class HtmlTokenizer {
     }
 
     private boolean content() throws IOException {
-        while (!isAllRead()) {
-
-
+        if (!isAllRead()) {
             saveCurrent();
             go();
+        }
+        return contentRun();
+    }
+
+    /**
+     * Reads the rest of the text run, the current char may be one that ends it.
+     *
+     * @return true if the text was added as a token
+     * @throws IOException
+     */
+    private boolean contentRun() throws IOException {
+        _pendingRun = CONTENT_RUN;
+        while (true) {
+            //
+            // Only '<' and '/' can start a tag or a CDATA section, skip everything else in one go
+            //
+            saveRun(countRun('<', '/'));
+
+            if (isAllRead()) {
+                break;
+            }
 
             if (startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
                 break;
@@ -811,8 +1525,10 @@ public class HtmlTokenizer {
                 break;
             }
 
-
+            saveCurrent();
+            go();
         }
+        _pendingRun = NO_RUN;
 
         return addSavedAsContent();
     }
@@ -832,6 +1548,9 @@ public class HtmlTokenizer {
     private void ignoreUntil(char ch) throws IOException {
         while (!isAllRead()) {
             go();
+            if (isAllRead()) {
+                break;
+            }
             updateCoordinates(_working[_pos]);
             if (isChar(ch)) {
                 break;
@@ -841,10 +1560,22 @@ public class HtmlTokenizer {
 
     private void comment() throws IOException {
         go(4);
+        commentRun();
+    }
+
+    /**
+     * Reads the rest of the comment, the current char may be the start of its end.
+     *
+     * @throws IOException
+     */
+    private void commentRun() throws IOException {
+        _pendingRun = COMMENT_RUN;
         while (!isAllRead() && !startsWith("-->")) {
             saveCurrent();
             go();
+            saveRun(countRun('-', '-'));
         }
+        _pendingRun = NO_RUN;
 
         if (startsWith("-->")) {
             go(3);
@@ -865,7 +1596,7 @@ public class HtmlTokenizer {
 
                 addToken(new CommentNode(comment));
             }
-            _saved.delete(0, _saved.length());
+            _saved.clear();
         }
     }
 
@@ -908,6 +1639,7 @@ public class HtmlTokenizer {
         ) {
             saveCurrent();
             go();
+            saveRun(countRun(']', '/'));
         }
 
         if (startsWith(CData.SAFE_END_CDATA)) {
@@ -931,12 +1663,12 @@ public class HtmlTokenizer {
             // add a token.
             //
             if (_isSpecialContext || !props.isOmitCdataOutsideScriptAndStyle()) {
-                String cdata = _saved.toString().substring(cdataStart);
+                String cdata = _saved.toString(cdataStart);
                 addToken(new CData(cdata));
             }
 
         }
-        _saved.delete(cdataStart, _saved.length());
+        _saved.setLength(cdataStart);
 
     }
 
@@ -961,6 +1693,10 @@ public class HtmlTokenizer {
         } else {
             _docType = new DoctypeToken(part1, part2, part3, part4, part5);
         }
+
+        if (eventBalancer != null) {
+            eventBalancer.doctype(_docType);
+        }
     }
 
     public DoctypeToken getDocType() {
@@ -975,17 +1711,44 @@ public class HtmlTokenizer {
 
     }
 
+    /**
+     * Finds the specified value in the working buffer, starting at the specified position.
+     *
+     * @return position of the value, or -1 if the value is not found before the end of the available content
+     */
+    private int indexOf(String value, int from) {
+        int valueLen = value.length();
+        int last = getAvailable() - valueLen;
+        char first = value.charAt(0);
+        for (int i = from; i <= last; i++) {
+            if (_working[i] == first) {
+                int j = 1;
+                while (j < valueLen && _working[i + j] == value.charAt(j)) {
+                    j++;
+                }
+                if (j == valueLen) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
     private boolean containsEndCData() throws IOException {
 
         //
-        // Look in the current buffer
+        // Look ahead in the current buffer. If the whole content is in the
+        // working array, that's all there is to check.
         //
-        StringBuffer buffer = new StringBuffer();
-        buffer.append(_working);
-        String working = buffer.toString();
-        if (working.contains(CData.END_CDATA) || working.contains(CData.SAFE_END_CDATA) || working.contains(CData.SAFE_END_CDATA_ALT)) {
+        if (indexOf(CData.END_CDATA, _pos) >= 0) {
             return true;
         }
+        if (_needsInput) {
+            throw NeedMoreInput.INSTANCE;
+        }
+        if (_reader == null || _len >= 0) {
+            return false;
+        }
 
         //
         // Check if the reader supports mark and reset. If not, return
@@ -1015,7 +1778,14 @@ public class HtmlTokenizer {
         //
         _reader.mark(MAX_BUFFER_SIZE);
 
-        buffer = new StringBuffer();
+        //
+        // Start with the tail of the current buffer, in case an end token
+        // is split between the buffer and the stream
+        //
+        StringBuffer buffer = new StringBuffer();
+        int tail = Math.min(getAvailable() - _pos, CData.END_CDATA.length() - 1);
+        buffer.append(_working, getAvailable() - tail, tail);
+        String working;
         int c;
         int read = 0;
 
@@ -1045,4 +1815,37 @@ public class HtmlTokenizer {
         return false;
     }
 
+    /**
+     * Thrown when pushed content ends before the current step can be decided.
+     */
+    private static class NeedMoreInput extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private static final NeedMoreInput INSTANCE = new NeedMoreInput();
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Content of a special context that was skipped, with the state it was skipped in.
+     */
+    private static class SkippedContent {
+        private final TagNode tagToken;
+        private final String tagName;
+        private final int row;
+        private final int col;
+        private final boolean isSpecialEmpty;
+        private String content;
+
+        private SkippedContent(TagNode tagToken, String tagName, int row, int col, boolean isSpecialEmpty) {
+            this.tagToken = tagToken;
+            this.tagName = tagName;
+            this.row = row;
+            this.col = col;
+            this.isSpecialEmpty = isSpecialEmpty;
+        }
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+/**
+ * Symbol table used by {@link HtmlTokenizer} to share tag and attribute names within a document.
+ * <p>Names are looked up directly from the tokenizer's char buffer, so a name seen before costs
+ * no allocation. Each name also keeps its lower case form; for known tags that is the very
+ * instance returned by {@link TagInfo#getName()}, so later comparisons against tag info names
+ * succeed on identity. The table is bounded, names beyond the limit are simply not shared.</p>
+ */
+class NameTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_SIZE = 2048;
+
+    private final ITagInfoProvider tagInfoProvider;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] lowerCaseNames = new String[INITIAL_CAPACITY];
+    private int size;
+
+    NameTable(ITagInfoProvider tagInfoProvider) {
+        this.tagInfoProvider = tagInfoProvider;
+    }
+
+    /**
+     * @return shared name made of the specified characters
+     */
+    String lookup(char[] buf, int off, int len) {
+        int hash = 0;
+        for (int i = off; i < off + len; i++) {
+            hash = 31 * hash + buf[i];
+        }
+
+        int mask = names.length - 1;
+        int index = hash & mask;
+        String name;
+        while ((name = names[index]) != null) {
+            if (name.hashCode() == hash && equals(name, buf, off, len)) {
+                return name;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return add(new String(buf, off, len), index);
+    }
+
+    /**
+     * @return shared lower case form of the specified name
+     */
+    String toLowerCase(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return lowerCase(name);
+        }
+        if (names[index] == null) {
+            add(name, index);
+            index = indexOf(name);
+        }
+        return lowerCaseNames[index];
+    }
+
+    private int indexOf(String name) {
+        int mask = names.length - 1;
+        int index = name.hashCode() & mask;
+        String curr;
+        while ((curr = names[index]) != null) {
+            if (curr.equals(name)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return size < MAX_SIZE ? index : -1;
+    }
+
+    private String add(String name, int index) {
+        if (size >= MAX_SIZE) {
+            return name;
+        }
+        String lowerCaseName = lowerCase(name);
+        if (lowerCaseName.equals(name)) {
+            name = lowerCaseName;
+        }
+        names[index] = name;
+        lowerCaseNames[index] = lowerCaseName;
+        size++;
+
+        if (size * 2 > names.length) {
+            rehash();
+        }
+
+        //
+        // Upper case spelling of a name shares the lower case instance
+        //
+        if (lowerCaseName != name) {
+            int lowerCaseIndex = indexOf(lowerCaseName);
+            if (lowerCaseIndex >= 0 && names[lowerCaseIndex] == null) {
+                names[lowerCaseIndex] = lowerCaseName;
+                lowerCaseNames[lowerCaseIndex] = lowerCaseName;
+                size++;
+                if (size * 2 > names.length) {
+                    rehash();
+                }
+            }
+        }
+        return name;
+    }
+
+    private String lowerCase(String name) {
+        String lowerCaseName = name.toLowerCase();
+        if (lowerCaseName.equals(name)) {
+            lowerCaseName = name;
+        }
+        int index = indexOf(lowerCaseName);
+        if (index >= 0 && names[index] != null) {
+            return names[index];
+        }
+        TagInfo tagInfo = tagInfoProvider == null ? null : tagInfoProvider.getTagInfo(lowerCaseName);
+        if (tagInfo != null && lowerCaseName.equals(tagInfo.getName())) {
+            return tagInfo.getName();
+        }
+        return lowerCaseName;
+    }
+
+    private void rehash() {
+        String[] oldNames = names;
+        String[] oldLowerCaseNames = lowerCaseNames;
+        names = new String[oldNames.length * 2];
+        lowerCaseNames = new String[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            String name = oldNames[i];
+            if (name != null) {
+                int index = name.hashCode() & mask;
+                while (names[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                names[index] = name;
+                lowerCaseNames[index] = oldLowerCaseNames[i];
+            }
+        }
+    }
+
+    private static boolean equals(String name, char[] buf, int off, int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (name.charAt(i) != buf[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
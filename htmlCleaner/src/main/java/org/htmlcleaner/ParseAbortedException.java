@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+
+/**
+ * <p>Thrown when a clean call is stopped by its {@link ParseBudget}.</p>
+ */
+public class ParseAbortedException extends HtmlCleanerException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Reason the clean call was stopped.
+     */
+    public enum Reason {
+        CANCELLED,
+        TIME_LIMIT,
+        TOKEN_LIMIT,
+        DEPTH_LIMIT
+    }
+
+    private final Reason reason;
+    private final TagNode partialResult;
+
+    public ParseAbortedException(Reason reason, TagNode partialResult) {
+        super("Parsing aborted: " + reason);
+        this.reason = reason;
+        this.partialResult = partialResult;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return root of the tree built from the content read before the limit was exceeded,
+     * or null if the parse was cancelled or ran out of time while the tree was being built.
+     */
+    public TagNode getPartialResult() {
+        return partialResult;
+    }
+
+}
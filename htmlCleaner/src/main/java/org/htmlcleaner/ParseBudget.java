@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+/**
+ * <p>Limits and cancellation of a single clean call, which may also be a search for elements,
+ * a push parser or an event based parse.</p>
+ * <p>The budget is checked at coarse points: every few hundred tokens while the document is
+ * read, before the tree is built and before it's pruned. Checking it therefore costs next to
+ * nothing. When a limit is exceeded, the call throws {@link ParseAbortedException} carrying the
+ * tree built so far. A budget may be cancelled from any thread, which lets callers stop a parse
+ * without interrupting the thread running it.</p>
+ * <p>A budget is meant for a single call; the time limit counts from its start, or from the
+ * creation of a push parser.</p>
+ */
+public class ParseBudget {
+
+    private long maxTimeMillis;
+    private int maxTokens;
+    private int maxDepth;
+    private volatile boolean cancelled;
+
+    public long getMaxTimeMillis() {
+        return maxTimeMillis;
+    }
+
+    /**
+     * @param maxTimeMillis maximum duration of the clean call, 0 means no limit
+     */
+    public void setMaxTimeMillis(long maxTimeMillis) {
+        this.maxTimeMillis = maxTimeMillis;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * @param maxTokens maximum number of tokens read from the document, 0 means no limit
+     */
+    public void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth maximum number of simultaneously open elements, 0 means no limit
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Requests the clean call using this budget to stop as soon as possible.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.htmlcleaner.conditional.TagNodeAttExistsCondition;
+import org.htmlcleaner.conditional.TagNodeAttNameValueRegexCondition;
+import org.htmlcleaner.conditional.TagNodeAttValueCondition;
+import org.htmlcleaner.conditional.TagNodeInsignificantBrCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prune or allow conditions of a clean call, compiled for matching many nodes.
+ * <p>Conditions requiring a tag name are looked up by the name of the node, the others are
+ * checked for every node, attribute conditions only for nodes having attributes. Conditions
+ * are still checked in the iteration order of their set, so the first one satisfied is the
+ * same as when checking them all.</p>
+ */
+class PruneMatcher {
+
+    private static final ITagNodeCondition[] NO_CONDITIONS = new ITagNodeCondition[0];
+
+    private final ITagNodeCondition[] conditions;
+
+    /**
+     * Conditions to check for nodes of a name, and for nodes of other names,
+     * the first array for nodes without attributes, the second for nodes with them
+     */
+    private final Map<String, ITagNodeCondition[][]> conditionsByName = new HashMap<String, ITagNodeCondition[][]>();
+    private final ITagNodeCondition[][] otherConditions;
+
+    PruneMatcher(Set<ITagNodeCondition> conditionSet) {
+        this.conditions = conditionSet == null ? NO_CONDITIONS : conditionSet.toArray(new ITagNodeCondition[conditionSet.size()]);
+
+        //
+        // Names of the conditions, null for the ones checked for every node
+        //
+        String[] names = new String[conditions.length];
+        for (int i = 0; i < conditions.length; i++) {
+            names[i] = getRequiredName(conditions[i]);
+            if (names[i] != null && !conditionsByName.containsKey(names[i])) {
+                conditionsByName.put(names[i], null);
+            }
+        }
+
+        otherConditions = select(names, null);
+        for (Map.Entry<String, ITagNodeCondition[][]> entry : conditionsByName.entrySet()) {
+            entry.setValue(select(names, entry.getKey()));
+        }
+    }
+
+    boolean isEmpty() {
+        return conditions.length == 0;
+    }
+
+    /**
+     * @param tagNode
+     * @return first condition satisfied by the node, or null if there is none
+     */
+    ITagNodeCondition match(TagNode tagNode) {
+        if (conditions.length == 0) {
+            return null;
+        }
+
+        ITagNodeCondition[] candidates;
+        String key = toKey(tagNode.getName());
+        if (key == null) {
+            candidates = conditions;
+        } else {
+            ITagNodeCondition[][] byName = conditionsByName.get(key);
+            candidates = (byName != null ? byName : otherConditions)[tagNode.hasAttributes() ? 1 : 0];
+        }
+
+        for (ITagNodeCondition condition : candidates) {
+            if (condition.satisfy(tagNode)) {
+                return condition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return conditions for nodes of the specified name, or of no name required by a condition
+     */
+    private ITagNodeCondition[][] select(String[] names, String name) {
+        List<ITagNodeCondition> withoutAttributes = new ArrayList<ITagNodeCondition>();
+        List<ITagNodeCondition> withAttributes = new ArrayList<ITagNodeCondition>();
+        for (int i = 0; i < conditions.length; i++) {
+            if (names[i] == null || names[i].equals(name)) {
+                withAttributes.add(conditions[i]);
+                if (!isAttributeCondition(conditions[i])) {
+                    withoutAttributes.add(conditions[i]);
+                }
+            }
+        }
+        return new ITagNodeCondition[][]{
+                withoutAttributes.toArray(new ITagNodeCondition[withoutAttributes.size()]),
+                withAttributes.toArray(new ITagNodeCondition[withAttributes.size()])
+        };
+    }
+
+    /**
+     * @return lower case name a node must have to satisfy the condition, or null if unknown
+     */
+    private static String getRequiredName(ITagNodeCondition condition) {
+        if (condition.getClass() == TagNodeNameCondition.class) {
+            String name = ((TagNodeNameCondition) condition).getName();
+            return name != null ? toKey(name) : null;
+        } else if (condition.getClass() == TagNodeInsignificantBrCondition.class) {
+            return "br";
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the condition can't be satisfied by a node without attributes
+     */
+    private static boolean isAttributeCondition(ITagNodeCondition condition) {
+        return condition.getClass() == TagNodeAttValueCondition.class
+                || condition.getClass() == TagNodeAttExistsCondition.class
+                || condition.getClass() == TagNodeAttNameValueRegexCondition.class;
+    }
+
+    /**
+     * Case insensitive comparison of ASCII names is the same as comparing their lower case,
+     * other names are compared by the conditions themselves.
+     *
+     * @return lower case of the ASCII name, or null for other names
+     */
+    private static String toKey(String name) {
+        if (name == null) {
+            return null;
+        }
+        boolean upperCase = false;
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (ch >= 128) {
+                return null;
+            }
+            upperCase |= ch >= 'A' && ch <= 'Z';
+        }
+        return upperCase ? name.toLowerCase(Locale.ENGLISH) : name;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Plan for XPath expressions made only of element steps such as <code>//a[@href]</code> or
+ * <code>/body/div[2]</code>, optionally ending with an attribute step such as <code>/@id</code>.
+ * <p>Nodes are pulled through the steps one at a time instead of collecting the result of every
+ * step first, and come out in the same order {@link XPather} would return them. Walking a step
+ * keeps one frame per level of the tree below the context node; only a recursive step after the
+ * first one remembers the nodes it returned, as several context nodes can reach the same node.
+ * Siblings are counted only for <code>last()</code> predicates.</p>
+ */
+final class SimplePath {
+
+    static final int HAS_ATTRIBUTE = 0;
+    static final int ATTRIBUTE_EQUALS = 1;
+    static final int POSITION = 2;
+    static final int LAST = 3;
+
+    /**
+     * Predicate of a step: <code>[@att]</code>, <code>[@att='value']</code>, <code>[n]</code> or
+     * <code>[last()]</code>.
+     */
+    static final class Predicate {
+        private final int type;
+        private final String attName;
+        private final String attValue;
+        private final int position;
+
+        Predicate(int type, String attName, String attValue, int position) {
+            this.type = type;
+            this.attName = attName;
+            this.attValue = attValue;
+            this.position = position;
+        }
+
+        boolean isLast() {
+            return type == LAST;
+        }
+
+        boolean satisfy(TagNode node, int position, int size) {
+            switch (type) {
+                case HAS_ATTRIBUTE:
+                    return node.getAttributeByName(attName) != null;
+                case ATTRIBUTE_EQUALS:
+                    String value = node.getAttributeByName(attName);
+                    return value != null && value.equals(attValue);
+                case POSITION:
+                    return position == this.position;
+                default:
+                    return position == size;
+            }
+        }
+    }
+
+    /**
+     * Step selecting child elements, or elements at any depth if recursive, by name and
+     * predicates.
+     */
+    static final class Step {
+        private final String name;
+        private final boolean isAll;
+        private final boolean isRecursive;
+        private final Predicate[] predicates;
+
+        Step(String name, boolean isRecursive, List<Predicate> predicates) {
+            this.name = name;
+            this.isAll = "*".equals(name);
+            this.isRecursive = isRecursive;
+            this.predicates = predicates.toArray(new Predicate[predicates.size()]);
+        }
+
+        boolean matchesName(TagNode node) {
+            return isAll || node.getName().equalsIgnoreCase(name);
+        }
+    }
+
+    private final Step[] steps;
+    private final String attName;
+
+    /**
+     * @param steps element steps, in order
+     * @param attName name of the attribute selected by the last step, or null
+     */
+    SimplePath(List<Step> steps, String attName) {
+        this.steps = steps.toArray(new Step[steps.size()]);
+        this.attName = attName;
+    }
+
+    /**
+     * @param node context node
+     * @return lazy iterator over the nodes or attribute values selected from the node.
+     */
+    @SuppressWarnings("unchecked")
+    Iterator<Object> iterator(TagNode node) {
+        Iterator<TagNode> nodes = Collections.singletonList(node).iterator();
+        for (int i = 0; i < steps.length; i++) {
+            nodes = new StepIterator(nodes, steps[i], i > 0 && steps[i].isRecursive);
+        }
+        if (attName != null) {
+            return new AttributeIterator(nodes, attName);
+        }
+        return (Iterator<Object>) (Iterator<?>) nodes;
+    }
+
+    /**
+     * Children of one node being walked, along with the positions reached by each predicate
+     * among them.
+     */
+    private static final class Frame {
+        private final Step step;
+        private final int[] positions;
+        private final int[] sizes;
+        private TagNode parent;
+        private int index;
+        private boolean isScanned;
+
+        Frame(Step step) {
+            this.step = step;
+            this.positions = new int[step.predicates.length];
+            this.sizes = new int[step.predicates.length];
+        }
+
+        void reset(TagNode parent) {
+            this.parent = parent;
+            this.index = 0;
+            this.isScanned = false;
+            Arrays.fill(positions, 0);
+            Arrays.fill(sizes, -1);
+        }
+
+        TagNode nextChild() {
+            return index < parent.getChildTagCount() ? parent.getChildTag(index++) : null;
+        }
+
+        boolean accept(TagNode node) {
+            return step.matchesName(node) && satisfy(node, positions, positions.length);
+        }
+
+        /**
+         * Checks the node against the first <code>count</code> predicates, each counting
+         * positions among the nodes that passed the ones before.
+         */
+        private boolean satisfy(TagNode node, int[] positions, int count) {
+            Predicate[] predicates = step.predicates;
+            for (int i = 0; i < count; i++) {
+                int position = ++positions[i];
+                int size = predicates[i].isLast() ? size(i) : 0;
+                if (!predicates[i].satisfy(node, position, size)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return number of children reaching predicate <code>i</code>, counted when first needed.
+         */
+        private int size(int i) {
+            if (sizes[i] < 0) {
+                int[] counted = new int[i];
+                int size = 0;
+                for (int j = 0, count = parent.getChildTagCount(); j < count; j++) {
+                    TagNode node = parent.getChildTag(j);
+                    if (step.matchesName(node) && satisfy(node, counted, i)) {
+                        size++;
+                    }
+                }
+                sizes[i] = size;
+            }
+            return sizes[i];
+        }
+    }
+
+    /**
+     * Walks one step from one context node at a time, in the order the interpreter collects
+     * nodes: a recursive named step returns each node before the ones below it, a recursive
+     * <code>*</code> step returns all matching children of a node before walking below them.
+     */
+    private static final class StepWalker {
+        private final Step step;
+        private final List<Frame> frames = new ArrayList<Frame>();
+        private int depth;
+
+        StepWalker(Step step) {
+            this.step = step;
+        }
+
+        void reset(TagNode node) {
+            depth = 0;
+            push(node);
+        }
+
+        private void push(TagNode node) {
+            if (node.getChildTagCount() > 0) {
+                if (depth == frames.size()) {
+                    frames.add(new Frame(step));
+                }
+                frames.get(depth++).reset(node);
+            }
+        }
+
+        TagNode next() {
+            while (depth > 0) {
+                Frame frame = frames.get(depth - 1);
+                TagNode child = frame.nextChild();
+                if (child == null) {
+                    if (step.isRecursive && step.isAll && !frame.isScanned) {
+                        frame.isScanned = true;
+                        frame.index = 0;
+                    } else {
+                        depth--;
+                    }
+                } else if (!step.isRecursive) {
+                    if (frame.accept(child)) {
+                        return child;
+                    }
+                } else if (step.isAll) {
+                    if (frame.isScanned) {
+                        push(child);
+                    } else if (frame.accept(child)) {
+                        return child;
+                    }
+                } else {
+                    boolean isAccepted = frame.accept(child);
+                    push(child);
+                    if (isAccepted) {
+                        return child;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class StepIterator implements Iterator<TagNode> {
+        private final Iterator<TagNode> contexts;
+        private final StepWalker walker;
+        private final Set<TagNode> returned;
+        private TagNode next;
+
+        StepIterator(Iterator<TagNode> contexts, Step step, boolean isDistinct) {
+            this.contexts = contexts;
+            this.walker = new StepWalker(step);
+            this.returned = isDistinct ? new HashSet<TagNode>() : null;
+        }
+
+        public boolean hasNext() {
+            while (next == null) {
+                TagNode node = walker.next();
+                if (node == null) {
+                    if (!contexts.hasNext()) {
+                        return false;
+                    }
+                    walker.reset(contexts.next());
+                } else if (returned == null || returned.add(node)) {
+                    next = node;
+                }
+            }
+            return true;
+        }
+
+        public TagNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            TagNode result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class AttributeIterator implements Iterator<Object> {
+        private final Iterator<TagNode> nodes;
+        private final String attName;
+        private String next;
+
+        AttributeIterator(Iterator<TagNode> nodes, String attName) {
+            this.nodes = nodes;
+            this.attName = attName;
+        }
+
+        public boolean hasNext() {
+            while (next == null && nodes.hasNext()) {
+                next = nodes.next().getAttributeByName(attName);
+            }
+            return next != null;
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
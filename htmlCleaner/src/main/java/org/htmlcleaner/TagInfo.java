@@ -13,7 +13,11 @@
 
 package org.htmlcleaner;
 
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 
@@ -85,7 +89,14 @@ import java.util.StringTokenizer;
  */
 public class TagInfo {
 
+    /**
+     * Dense ids of the tag names known to any tag info, shared by all tag providers
+     */
+    private static final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private static volatile Map<String, Integer> publishedIds = Collections.emptyMap();
+
     private String name;
+    private int id;
     private ContentType contentType;
     private Set<String> mustCloseTags = new HashSet<String>();
     private Set<String> higherTags = new HashSet<String>();
@@ -96,6 +107,17 @@ public class TagInfo {
     private BelongsTo belongsTo = BelongsTo.BODY;
     private Set<String> requiredParentTags = new HashSet<String>();
     private Set<String> fatalTags = new HashSet<String>();
+
+    //
+    // The relations above by tag id, queried by the cleaner while balancing tags.
+    // Fatal and required parent ids keep the iteration order of their sets. They follow
+    // the define methods and setters, not changes made to the sets returned by getters.
+    //
+    private BitSet mustCloseIds = new BitSet();
+    private BitSet higherIds = new BitSet();
+    private BitSet permittedIds = new BitSet();
+    private int[] requiredParentIds = new int[0];
+    private int[] fatalIds = new int[0];
     private String preferredChildTag = null;
     private String assumedNamespace = null;
     private boolean deprecated;
@@ -106,6 +128,7 @@ public class TagInfo {
 
     public TagInfo(String name, ContentType contentType, BelongsTo belongsTo, boolean deprecated, boolean unique, boolean ignorePermitted, CloseTag closeTag, Display display) {
         this.name = name;
+        this.id = idOf(name);
         this.contentType = contentType;
         this.belongsTo = belongsTo;
         this.deprecated = deprecated;
@@ -129,7 +152,9 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.fatalTags.add(currTag);
             this.higherTags.add(currTag);
+            this.higherIds.set(idOf(currTag));
         }
+        this.fatalIds = toIds(fatalTags);
     }
 
     public void defineRequiredEnclosingTags(String commaSeparatedListOfTags) {
@@ -138,7 +163,9 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.requiredParentTags.add(currTag);
             this.higherTags.add(currTag);
+            this.higherIds.set(idOf(currTag));
         }
+        this.requiredParentIds = toIds(requiredParentTags);
     }
 
     public void defineForbiddenTags(String commaSeparatedListOfTags) {
@@ -146,6 +173,7 @@ public class TagInfo {
         while (tokenizer.hasMoreTokens()) {
             String currTag = tokenizer.nextToken();
             this.permittedTags.add(currTag);
+            this.permittedIds.set(idOf(currTag));
         }
     }
 
@@ -162,6 +190,7 @@ public class TagInfo {
         while (tokenizer.hasMoreTokens()) {
             String currTag = tokenizer.nextToken();
             this.higherTags.add(currTag);
+            this.higherIds.set(idOf(currTag));
         }
     }
 
@@ -171,6 +200,7 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.copyTags.add(currTag);
             this.mustCloseTags.add(currTag);
+            this.mustCloseIds.set(idOf(currTag));
         }
     }
 
@@ -187,6 +217,7 @@ public class TagInfo {
         while (tokenizer.hasMoreTokens()) {
             String currTag = tokenizer.nextToken();
             this.mustCloseTags.add(currTag);
+            this.mustCloseIds.set(idOf(currTag));
         }
     }
 
@@ -207,6 +238,14 @@ public class TagInfo {
 
     public void setName(String name) {
         this.name = name;
+        this.id = idOf(name);
+    }
+
+    /**
+     * @return dense id of the tag name, the same for tag infos of any provider
+     */
+    public int getId() {
+        return id;
     }
 
     public ContentType getContentType() {
@@ -219,6 +258,7 @@ public class TagInfo {
 
     public void setMustCloseTags(Set<String> mustCloseTags) {
         this.mustCloseTags = mustCloseTags;
+        this.mustCloseIds = toBitSet(mustCloseTags);
     }
 
     public Set<String> getHigherTags() {
@@ -227,6 +267,7 @@ public class TagInfo {
 
     public void setHigherTags(Set<String> higherTags) {
         this.higherTags = higherTags;
+        this.higherIds = toBitSet(higherTags);
     }
 
     public Set<String> getChildTags() {
@@ -243,6 +284,7 @@ public class TagInfo {
 
     public void setPermittedTags(Set<String> permittedTags) {
         this.permittedTags = permittedTags;
+        this.permittedIds = toBitSet(permittedTags);
     }
 
     public Set<String> getCopyTags() {
@@ -267,6 +309,7 @@ public class TagInfo {
 
     public void setRequiredParent(String requiredParent) {
         this.requiredParentTags.add(requiredParent);
+        this.requiredParentIds = toIds(requiredParentTags);
     }
 
     public BelongsTo getBelongsTo() {
@@ -288,8 +331,23 @@ public class TagInfo {
         return false;
     }
 
+    /**
+     * @return ids of the fatal tags, in the iteration order of {@link #getFatalTags()}
+     */
+    int[] getFatalIds() {
+        return fatalIds;
+    }
+
+    /**
+     * @return ids of the required parent tags, in the iteration order of {@link #getRequiredParentTags()}
+     */
+    int[] getRequiredParentIds() {
+        return requiredParentIds;
+    }
+
     public void setFatalTag(String fatalTag) {
         this.fatalTags.add(fatalTag);
+        this.fatalIds = toIds(fatalTags);
     }
 
     public boolean isDeprecated() {
@@ -330,6 +388,10 @@ public class TagInfo {
         return higherTags.contains(tagName);
     }
 
+    boolean isHigher(int tagId) {
+        return tagId >= 0 && higherIds.get(tagId);
+    }
+
     boolean isCopy(String tagName) {
         return copyTags.contains(tagName);
     }
@@ -346,6 +408,13 @@ public class TagInfo {
         return !permittedTags.isEmpty();
     }
 
+    /**
+     * @return ids of the forbidden tags, see {@link #defineForbiddenTags(String)}
+     */
+    BitSet getPermittedIds() {
+        return permittedIds;
+    }
+
     boolean isHeadTag() {
         return belongsTo == BelongsTo.HEAD;
     }
@@ -356,7 +425,7 @@ public class TagInfo {
 
     boolean isMustCloseTag(TagInfo tagInfo) {
         if (tagInfo != null) {
-            return mustCloseTags.contains(tagInfo.getName()) || tagInfo.contentType == ContentType.text;
+            return mustCloseIds.get(tagInfo.id) || tagInfo.contentType == ContentType.text;
         }
 
         return false;
@@ -421,4 +490,55 @@ public class TagInfo {
         this.preferredChildTag = preferredChildTag;
     }
 
-}
\ No newline at end of file
+
+    /**
+     * @return id of the specified tag name, assigning the next one if the name has none yet
+     */
+    static int idOf(String tagName) {
+        Integer id = publishedIds.get(tagName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ids) {
+            id = ids.get(tagName);
+            if (id == null) {
+                id = ids.size();
+                ids.put(tagName, id);
+                publishedIds = new HashMap<String, Integer>(ids);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @return id of the specified tag name, or -1 if no tag info knows the name
+     */
+    static int findId(String tagName) {
+        Integer id = publishedIds.get(tagName);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return number of ids assigned so far
+     */
+    static int idCount() {
+        return publishedIds.size();
+    }
+
+    private static BitSet toBitSet(Set<String> tags) {
+        BitSet bitSet = new BitSet();
+        for (String tag : tags) {
+            bitSet.set(idOf(tag));
+        }
+        return bitSet;
+    }
+
+    private static int[] toIds(Set<String> tags) {
+        int[] tagIds = new int[tags.size()];
+        int i = 0;
+        for (String tag : tags) {
+            tagIds[i++] = idOf(tag);
+        }
+        return tagIds;
+    }
+}
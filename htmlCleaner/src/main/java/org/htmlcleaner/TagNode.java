@@ -21,12 +21,15 @@ import org.htmlcleaner.conditional.TagNodeNameCondition;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -39,8 +42,28 @@ import java.util.TreeMap;
  * </p>
  */
 public class TagNode extends TagToken implements HtmlNode {
-    private final LinkedHashMap<String, String> attributes = new LinkedHashMap<String, String>();
-    private final List<BaseToken> children = new ArrayList<BaseToken>();
+    private final AttributeList attributes = new AttributeList();
+    /**
+     * Number of attribute names that are not lower case ASCII. While there are none, case
+     * insensitive lookups go straight to the attribute map.
+     */
+    private int mixedCaseAttributes;
+    private final ChildList children = new ChildList();
+    /**
+     * Element children, valid while the children list has not been modified since
+     * {@link #childTagListModCount}.
+     */
+    private ChildTagList childTagList;
+    private int childTagListModCount;
+    /**
+     * Position of this node among the element children of its parent, as of the last time the
+     * parent built its element list.
+     */
+    private int childTagIndex;
+    /**
+     * Index the node was last added to, invalidated when the node changes.
+     */
+    DocumentIndex index;
     /**
      * Indicates that the node is a copy of another node.
      *
@@ -83,11 +106,24 @@ public class TagNode extends TagToken implements HtmlNode {
      * Indicates that the node was marked to be pruned out of the tree.
      */
     private boolean pruned;
+    /**
+     * Lower case form of the name, computed on first access.
+     */
+    private String lowerCaseName;
 
     public TagNode(String name) {
         this(name, false);
     }
 
+    /**
+     * Creates a tag with the lower case form of its name already known, as the tokenizer shares
+     * name instances across the document.
+     */
+    TagNode(String name, String lowerCaseName) {
+        this(name, false);
+        this.lowerCaseName = lowerCaseName;
+    }
+
     private TagNode(String name, boolean isCopy) {
         super(name);
         this.isCopy = isCopy;
@@ -105,7 +141,10 @@ public class TagNode extends TagToken implements HtmlNode {
         if (this.isForeignMarkup) {
             return name;
         } else {
-            return name == null ? null : name.toLowerCase();
+            if (lowerCaseName == null && name != null) {
+                lowerCaseName = name.toLowerCase();
+            }
+            return lowerCaseName;
         }
     }
 
@@ -117,9 +156,19 @@ public class TagNode extends TagToken implements HtmlNode {
     public String getAttributeByName(String attName) {
         if (attName == null) return null;
         //
-        // We have to do case-insensitive comparisons
+        // We have to do case-insensitive comparisons, the first of the names
+        // equal in lower case wins
         //
-        return attName != null ? (String) getAttributesInLowerCase().get(attName.toLowerCase()) : null;
+        String lowerCaseName = attName.toLowerCase();
+        if (mixedCaseAttributes == 0) {
+            return attributes.get(lowerCaseName);
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            if (attributes.getName(i).toLowerCase().equals(lowerCaseName)) {
+                return attributes.getValue(i);
+            }
+        }
+        return null;
     }
 
     /**
@@ -128,7 +177,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return Map instance containing all attribute name/value pairs.
      */
     public Map<String, String> getAttributes() {
-        return new LinkedHashMap<String, String>(this.attributes);
+        return this.attributes.toMap();
     }
 
     /**
@@ -170,11 +219,6 @@ public class TagNode extends TagToken implements HtmlNode {
             //
             for (Entry<String, String> entry : attributes.entrySet()) {
                 String key = entry.getKey();
-                if (Thread.currentThread().isInterrupted()) {
-                    // Interruption: if the attributes.keySet() is large this loop will take a lot of time
-                    handleInterruption();
-                    return;
-                }
                 String keyToSet = key; // the key to set
                 String value = attributes.get(key); // the value to set
                 value = Utils.deserializeEntities(value, true);
@@ -184,7 +228,8 @@ public class TagNode extends TagToken implements HtmlNode {
                 // with different casing. If so, we keep the casing
                 //
                 if (!foreignMarkupFlagSet) {
-                    for (String existingKey : this.attributes.keySet()) {
+                    for (int i = 0; i < this.attributes.size(); i++) {
+                        String existingKey = this.attributes.getName(i);
                         if (existingKey.equalsIgnoreCase(key)) {
                             keyToSet = existingKey;
                         }
@@ -217,9 +262,52 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param attributes the attributes to set
      */
     private void replaceAttributes(Map<String, String> attributes) {
-
+        invalidateIndex();
         this.attributes.clear();
-        this.attributes.putAll(attributes);
+        this.mixedCaseAttributes = 0;
+        for (Entry<String, String> entry : attributes.entrySet()) {
+            putAttribute(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void putAttribute(String attName, String attValue) {
+        invalidateIndex();
+        if (!attributes.containsKey(attName) && !isLowerCaseAscii(attName)) {
+            mixedCaseAttributes++;
+        }
+        attributes.put(attName, attValue);
+    }
+
+    private static boolean isLowerCaseAscii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (ch >= 128 || (ch >= 'A' && ch <= 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the name contains only ASCII characters
+     */
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void invalidateIndex() {
+        if (index != null) {
+            index.invalidate();
+        }
+    }
+
+    boolean hasAttributes() {
+        return !attributes.isEmpty();
     }
 
     /**
@@ -232,15 +320,30 @@ public class TagNode extends TagToken implements HtmlNode {
         if (attName == null) return false;
 
         //
-        // We have to do case-insensitive comparisons
+        // We have to do case-insensitive comparisons. For lower case ASCII names
+        // that is the same as looking up the name in lower case.
         //
-        for (String key : attributes.keySet()) {
-            if (key.equalsIgnoreCase(attName)) return true;
+        if (mixedCaseAttributes == 0 && isAscii(attName)) {
+            return attributes.containsKey(isLowerCaseAscii(attName) ? attName : attName.toLowerCase(Locale.ENGLISH));
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            if (attributes.getName(i).equalsIgnoreCase(attName)) return true;
         }
 
         return false;
     }
 
+    /**
+     * Checks existence of the attribute with exactly the specified name, without
+     * ignoring case as {@link #hasAttribute(String)} does.
+     *
+     * @param attName
+     * @return true if TagNode has attribute with this very name
+     */
+    public boolean hasAttributeNamed(String attName) {
+        return attName != null && attributes.containsKey(attName);
+    }
+
     /**
      * Adds specified attribute to this tag or overrides existing one.
      *
@@ -260,7 +363,7 @@ public class TagNode extends TagToken implements HtmlNode {
                 // overwrite it.
                 //
                 if (!attributes.containsKey(trim)) {
-                    attributes.put(trim, Utils.deserializeEntities(value, true));
+                    putAttribute(trim, Utils.deserializeEntities(value, true));
                 }
             }
         }
@@ -273,7 +376,11 @@ public class TagNode extends TagToken implements HtmlNode {
      */
     public void removeAttribute(String attName) {
         if (attName != null && !"".equals(attName.trim())) {
-            attributes.remove(attName.toLowerCase());
+            invalidateIndex();
+            String lowerCaseName = attName.toLowerCase();
+            if (attributes.remove(lowerCaseName) && !isLowerCaseAscii(lowerCaseName)) {
+                mixedCaseAttributes--;
+            }
         }
     }
 
@@ -289,6 +396,7 @@ public class TagNode extends TagToken implements HtmlNode {
     }
 
     public void setChildren(List<? extends BaseToken> children) {
+        invalidateIndex();
         this.children.clear();
         this.children.addAll(children);
     }
@@ -301,16 +409,119 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return List of child TagNode objects.
      */
     public List<TagNode> getChildTagList() {
-        List<TagNode> childTagList = new ArrayList<TagNode>();
-        for (Object item : children) {
-            if (item instanceof TagNode) {
-                childTagList.add((TagNode) item);
+        return new ArrayList<TagNode>(childTags());
+    }
+
+    /**
+     * @return Read-only list of child TagNode objects, shared until the children are modified,
+     * so it costs nothing to get it again. It's a snapshot that doesn't follow later changes.
+     */
+    public List<TagNode> getChildTagView() {
+        return childTags();
+    }
+
+    /**
+     * Returns the element children, building the list again only if the children were
+     * modified since it was last built. The list is a snapshot and can not be modified.
+     */
+    private ChildTagList childTags() {
+        ChildTagList childTagList = this.childTagList;
+        int modCount = children.modCount();
+        if (childTagList != null && childTagListModCount == modCount) {
+            return childTagList;
+        }
+        int count = 0;
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i) instanceof TagNode) {
+                count++;
             }
         }
-
+        if (count == 0) {
+            childTagList = ChildTagList.EMPTY;
+        } else {
+            TagNode[] tags = new TagNode[count];
+            count = 0;
+            for (int i = 0; i < children.size(); i++) {
+                BaseToken item = children.get(i);
+                if (item instanceof TagNode) {
+                    TagNode tag = (TagNode) item;
+                    tag.childTagIndex = count;
+                    tags[count++] = tag;
+                }
+            }
+            childTagList = new ChildTagList(tags);
+        }
+        this.childTagList = childTagList;
+        this.childTagListModCount = modCount;
         return childTagList;
     }
 
+    /**
+     * @return Number of child TagNode objects.
+     */
+    public int getChildTagCount() {
+        return childTags().size();
+    }
+
+    /**
+     * @param index
+     * @return Child TagNode at the specified position among the child elements.
+     */
+    public TagNode getChildTag(int index) {
+        return childTags().get(index);
+    }
+
+    /**
+     * @return Next TagNode among the children of the parent, or null if this is the last one
+     * or the node has no parent.
+     */
+    public TagNode getNextSiblingTag() {
+        return getSiblingTag(1);
+    }
+
+    /**
+     * @return Previous TagNode among the children of the parent, or null if this is the first
+     * one or the node has no parent.
+     */
+    public TagNode getPreviousSiblingTag() {
+        return getSiblingTag(-1);
+    }
+
+    private TagNode getSiblingTag(int offset) {
+        int index = getChildTagPosition();
+        if (index < 0) {
+            return null;
+        }
+        TagNode[] siblings = parent.childTags().tags;
+        index += offset;
+        return index >= 0 && index < siblings.length ? siblings[index] : null;
+    }
+
+    /**
+     * @return Position of this node among the child elements of its parent, or -1 if the node
+     * has no parent or is not among its children.
+     */
+    int getChildTagPosition() {
+        if (parent == null) {
+            return -1;
+        }
+        TagNode[] siblings = parent.childTags().tags;
+        int index = childTagIndex;
+        if (index < siblings.length && siblings[index] == this) {
+            return index;
+        }
+        //
+        // The node was built into the element list of another parent, or was
+        // only inserted without being attached to this one
+        //
+        for (int i = 0; i < siblings.length; i++) {
+            if (siblings[i] == this) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * @return Whether this node has child elements or not.
      */
@@ -322,13 +533,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return An array of child TagNode instances.
      */
     public TagNode[] getChildTags() {
-        List<TagNode> childTagList = getChildTagList();
-        TagNode[] childrenArray = new TagNode[childTagList.size()];
-        for (int i = 0; i < childTagList.size(); i++) {
-            childrenArray[i] = (TagNode) childTagList.get(i);
-        }
-
-        return childrenArray;
+        return childTags().tags.clone();
     }
 
     /**
@@ -371,6 +576,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param childToAdd
      */
     public void insertChild(int index, HtmlNode childToAdd) {
+        invalidateIndex();
         children.add(index, childToAdd);
     }
 
@@ -387,6 +593,25 @@ public class TagNode extends TagToken implements HtmlNode {
         }
     }
 
+    /**
+     * Inserts all elements from specified list before specified child, the same way
+     * {@link #addChildren(List)} appends them.
+     *
+     * @param node        Child before which to insert new nodes
+     * @param newChildren
+     */
+    void insertChildrenBefore(TagNode node, List<?> newChildren) {
+        int index = getChildIndex(node);
+        if (index >= 0) {
+            invalidateIndex();
+            List<BaseToken> following = children.subList(index, children.size());
+            List<BaseToken> moved = new ArrayList<BaseToken>(following);
+            following.clear();
+            addChildren(newChildren);
+            children.addAll(moved);
+        }
+    }
+
     /**
      * Inserts specified node in the list of children after specified child
      *
@@ -419,6 +644,7 @@ public class TagNode extends TagToken implements HtmlNode {
         if (child == null) {
             return;
         }
+        invalidateIndex();
         if (child instanceof List) {
             addChildren((List) child);
         } else if (child instanceof ProxyTagNode) {
@@ -454,23 +680,22 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param isRecursive
      * @return First TagNode found, or null if no such elements.
      */
-    private TagNode findElement(ITagNodeCondition condition, boolean isRecursive) {
-        if (condition != null) {
-            for (Object item : children) {
-                if (item instanceof TagNode) {
-                    TagNode currNode = (TagNode) item;
-                    if (condition.satisfy(currNode)) {
-                        return currNode;
-                    } else if (isRecursive) {
-                        TagNode inner = currNode.findElement(condition, isRecursive);
-                        if (inner != null) {
-                            return inner;
-                        }
-                    }
-                }
-            }
-        }
-        return null;
+    TagNode findElement(ITagNodeCondition condition, boolean isRecursive) {
+        TagNodeIterator iterator = new TagNodeIterator(this, condition, isRecursive);
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * Iterates over the elements in the tree that satisfy specified condition, in document order.
+     * Elements are found one by one as the iterator advances, so the tree is walked only as far
+     * as the iteration goes.
+     *
+     * @param condition
+     * @param isRecursive
+     * @return Iterator over the matching TagNode instances.
+     */
+    public Iterator<TagNode> getElementIterator(ITagNodeCondition condition, boolean isRecursive) {
+        return new TagNodeIterator(this, condition, isRecursive);
     }
 
     /**
@@ -481,26 +706,11 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return List of TagNode instances.
      */
     private List<TagNode> findMatchingTagNodes(ITagNodeCondition condition, boolean isRecursive) {
-        List<TagNode> result = new LinkedList<TagNode>();
-        if (condition == null) {
-            return result;
+        List<TagNode> result = new ArrayList<TagNode>();
+        TagNodeIterator iterator = new TagNodeIterator(this, condition, isRecursive);
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
         }
-
-        for (Object item : children) {
-            if (item instanceof TagNode) {
-                TagNode currNode = (TagNode) item;
-                if (condition.satisfy(currNode)) {
-                    result.add(currNode);
-                }
-                if (isRecursive) {
-                    List<TagNode> innerList = currNode.findMatchingTagNodes(condition, isRecursive);
-                    if (innerList != null && innerList.size() > 0) {
-                        result.addAll(innerList);
-                    }
-                }
-            }
-        }
-
         return result;
     }
 
@@ -522,13 +732,7 @@ public class TagNode extends TagToken implements HtmlNode {
      */
     private TagNode[] getElements(ITagNodeCondition condition, boolean isRecursive) {
         final List<TagNode> list = findMatchingTagNodes(condition, isRecursive);
-        TagNode[] array;
-        if (list == null) {
-            array = new TagNode[0];
-        } else {
-            array = (TagNode[]) list.toArray(new TagNode[list.size()]);
-        }
-        return array;
+        return list.toArray(new TagNode[list.size()]);
     }
 
     public List<? extends TagNode> getAllElementsList(boolean isRecursive) {
@@ -600,7 +804,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @throws XPatherException
      */
     public Object[] evaluateXPath(String xPathExpression) throws XPatherException {
-        return new XPather(xPathExpression).evaluateAgainstNode(this);
+        return XPather.compile(xPathExpression).evaluateAgainstNode(this);
     }
 
     /**
@@ -619,6 +823,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return True if child object existed in the children list.
      */
     public boolean removeChild(Object child) {
+        invalidateIndex();
         return this.children.remove(child);
     }
 
@@ -626,6 +831,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * Removes all children (subelements and text content).
      */
     public void removeAllChildren() {
+        invalidateIndex();
         this.children.clear();
     }
 
@@ -768,7 +974,9 @@ public class TagNode extends TagToken implements HtmlNode {
 
     public TagNode makeCopy() {
         TagNode copy = new TagNode(name, true);
+        copy.lowerCaseName = lowerCaseName;
         copy.attributes.putAll(attributes);
+        copy.mixedCaseAttributes = mixedCaseAttributes;
         return copy;
     }
 
@@ -823,6 +1031,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param isForeignMarkup the isForeignMarkup to set
      */
     public void setForeignMarkup(boolean isForeignMarkup) {
+        invalidateIndex();
         foreignMarkupFlagSet = true;
         this.isForeignMarkup = isForeignMarkup;
 
@@ -857,22 +1066,60 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return a map of attributes in key/value pairs with names in lowercase
      */
     private Map<String, String> attributesToLowerCase() {
+        if (mixedCaseAttributes == 0) {
+            return attributes.toMap();
+        }
         Map<String, String> lowerCaseAttributes = new LinkedHashMap<String, String>();
-        for (Entry<String, String> entry : attributes.entrySet()) {
-            String key = entry.getKey();
+        for (int i = 0; i < attributes.size(); i++) {
+            String key = attributes.getName(i);
             if (!lowerCaseAttributes.containsKey(key.toLowerCase())) {
-                lowerCaseAttributes.put(key.toLowerCase(), attributes.get(key));
+                lowerCaseAttributes.put(key.toLowerCase(), attributes.getValue(i));
             }
         }
         return lowerCaseAttributes;
     }
 
     /**
-     * Called whenver the thread is interrupted. Currently this is a
-     * placeholder, but could hold cleanup methods and user interaction
+     * Children list counting replacements as modifications too, so that the element list can
+     * tell whether it is still valid.
      */
-    private void handleInterruption() {
+    private static final class ChildList extends ArrayList<BaseToken> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public BaseToken set(int index, BaseToken element) {
+            modCount++;
+            return super.set(index, element);
+        }
 
+        int modCount() {
+            return modCount;
+        }
+    }
+
+    /**
+     * Unmodifiable list of element children.
+     */
+    private static final class ChildTagList extends AbstractList<TagNode> implements RandomAccess {
+
+        static final ChildTagList EMPTY = new ChildTagList(new TagNode[0]);
+
+        final TagNode[] tags;
+
+        ChildTagList(TagNode[] tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public TagNode get(int index) {
+            return tags[index];
+        }
+
+        @Override
+        public int size() {
+            return tags.length;
+        }
     }
 
-}
\ No newline at end of file
+}
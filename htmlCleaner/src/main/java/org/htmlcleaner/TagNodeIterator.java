@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the elements under a node that satisfy a condition, in document order.
+ * <p>The tree is walked depth first without recursion, keeping only the element children of
+ * each open level and the position reached in them. The next match is searched for only when
+ * it is asked for, so stopping early skips the rest of the tree.</p>
+ */
+final class TagNodeIterator implements Iterator<TagNode> {
+
+    private final ITagNodeCondition condition;
+    private final boolean isRecursive;
+    private final ArrayList<List<TagNode>> levels = new ArrayList<List<TagNode>>();
+    private int[] positions = new int[8];
+    private int depth;
+    private TagNode next;
+
+    TagNodeIterator(TagNode root, ITagNodeCondition condition, boolean isRecursive) {
+        this.condition = condition;
+        this.isRecursive = isRecursive;
+        if (condition == null) {
+            depth = -1;
+        } else {
+            levels.add(root.getChildTagView());
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = findNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public TagNode next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TagNode result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private TagNode findNext() {
+        while (depth >= 0) {
+            List<TagNode> level = levels.get(depth);
+            int position = positions[depth];
+            if (position == level.size()) {
+                levels.set(depth, null);
+                depth--;
+                continue;
+            }
+            positions[depth] = position + 1;
+            TagNode node = level.get(position);
+            boolean matches = condition.satisfy(node);
+            if (isRecursive) {
+                List<TagNode> children = node.getChildTagView();
+                if (!children.isEmpty()) {
+                    push(children);
+                }
+            }
+            if (matches) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void push(List<TagNode> children) {
+        depth++;
+        if (depth == positions.length) {
+            int[] grown = new int[depth << 1];
+            System.arraycopy(positions, 0, grown, 0, depth);
+            positions = grown;
+        }
+        positions[depth] = 0;
+        if (depth == levels.size()) {
+            levels.add(children);
+        } else {
+            levels.set(depth, children);
+        }
+    }
+}
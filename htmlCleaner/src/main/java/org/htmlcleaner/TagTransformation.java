@@ -31,6 +31,7 @@ public class TagTransformation {
     private boolean preserveSourceAttributes;
     private Map<String, String> attributeTransformations = new LinkedHashMap<String, String>();
     private List<AttributeTransformation> attributePatternTransformations = new ArrayList<AttributeTransformation>();
+    private boolean frozen;
 
     public TagTransformation() {
         this.preserveSourceAttributes = true;
@@ -85,10 +86,12 @@ public class TagTransformation {
      * @param transformationDesc Template describing attribute value.
      */
     public void addAttributeTransformation(String targetAttName, String transformationDesc) {
+        checkNotFrozen();
         attributeTransformations.put(targetAttName.toLowerCase(), transformationDesc);
     }
 
     public void addAttributePatternTransformation(Pattern attNamePattern, String transformationDesc) {
+        checkNotFrozen();
         attributePatternTransformations.add(new AttributeTransformationPatternImpl(attNamePattern, null, transformationDesc));
     }
 
@@ -100,6 +103,7 @@ public class TagTransformation {
      * @param attributeTransformation
      */
     public void addAttributePatternTransformation(AttributeTransformation attributeTransformation) {
+        checkNotFrozen();
         if (attributePatternTransformations == null) {
             attributePatternTransformations = new ArrayList<AttributeTransformation>();
         }
@@ -116,6 +120,16 @@ public class TagTransformation {
         addAttributeTransformation(targetAttName, null);
     }
 
+    void freeze() {
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("cannot modify frozen transformation");
+        }
+    }
+
     boolean hasAttributeTransformations() {
         return attributeTransformations != null || attributePatternTransformations != null;
     }
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * List of tokens that {@link HtmlTokenizer} hands over to {@link HtmlCleaner#makeTree} as they arrive.
+ * <p>Building the tree empties the slots of tokens moved into their parents. Compacting the list
+ * drops those slots, while every remaining token keeps its index, so positions of the open tags
+ * stay valid. A dropped slot reads as null, the same as before compacting. Iterators step over
+ * the remaining tokens only, which is all that the tree building needs, so the list holds little
+ * more than the open tags and their children.</p>
+ */
+class TokenList<E> extends AbstractList<E> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Capacity an empty list may keep, a larger one is given up by {@link #trim()}
+     */
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+
+    private Object[] items = new Object[INITIAL_CAPACITY];
+    private int[] positions = new int[INITIAL_CAPACITY];
+
+    /**
+     * Number of slots kept
+     */
+    private int count;
+
+    /**
+     * Number of tokens the list had with no slots dropped
+     */
+    private int size;
+
+    /**
+     * Number of slots kept by the last compacting
+     */
+    private int compactedCount;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkIndex(index);
+        int slot = slotOf(index);
+        return slot >= 0 ? (E) items[slot] : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        checkIndex(index);
+        int slot = slotOf(index);
+        if (slot >= 0) {
+            E previous = (E) items[slot];
+            items[slot] = element;
+            return previous;
+        }
+        if (element != null) {
+            insertSlot(-slot - 1, index, element);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean add(E element) {
+        insertSlot(count, size, element);
+        size++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int slot = slotOf(index);
+        insert(slot >= 0 ? slot : -slot - 1, index, element);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            items[i] = null;
+        }
+        count = 0;
+        size = 0;
+        compactedCount = 0;
+        modCount++;
+    }
+
+    /**
+     * Drops the arrays of an empty list that grew beyond {@link #MAX_RETAINED_CAPACITY}.
+     */
+    void trim() {
+        if (count == 0 && items.length > MAX_RETAINED_CAPACITY) {
+            items = new Object[INITIAL_CAPACITY];
+            positions = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int index) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        int slot = slotOf(index);
+        return new Itr(slot >= 0 ? slot : -slot - 1, index);
+    }
+
+    /**
+     * @return true if the list grew enough since it was last compacted to be worth compacting again
+     */
+    boolean isCompactingDue() {
+        return count >= INITIAL_CAPACITY && count >= 2 * compactedCount;
+    }
+
+    /**
+     * Drops the empty slots.
+     */
+    void compact() {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (items[i] != null) {
+                items[kept] = items[i];
+                positions[kept] = positions[i];
+                kept++;
+            }
+        }
+        for (int i = kept; i < count; i++) {
+            items[i] = null;
+        }
+        count = kept;
+        compactedCount = kept;
+        modCount++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * @return slot holding the specified index, or (-(insertion slot) - 1) if that slot was dropped
+     */
+    private int slotOf(int index) {
+        if (count > 0 && positions[count - 1] == index) {
+            return count - 1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = positions[mid];
+            if (position < index) {
+                low = mid + 1;
+            } else if (position > index) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Inserts the element at the specified slot and index, moving the following tokens one index further.
+     */
+    private void insert(int slot, int index, Object element) {
+        for (int i = slot; i < count; i++) {
+            positions[i]++;
+        }
+        insertSlot(slot, index, element);
+        size++;
+    }
+
+    private void insertSlot(int slot, int index, Object element) {
+        if (count == items.length) {
+            Object[] newItems = new Object[count * 2];
+            int[] newPositions = new int[count * 2];
+            System.arraycopy(items, 0, newItems, 0, count);
+            System.arraycopy(positions, 0, newPositions, 0, count);
+            items = newItems;
+            positions = newPositions;
+        }
+        System.arraycopy(items, slot, items, slot + 1, count - slot);
+        System.arraycopy(positions, slot, positions, slot + 1, count - slot);
+        items[slot] = element;
+        positions[slot] = index;
+        count++;
+        modCount++;
+    }
+
+    /**
+     * Iterator over the kept slots. Indexes are reported the same as if no slots were dropped.
+     */
+    private class Itr implements ListIterator<E> {
+        private int cursor;
+        private int index;
+        private int lastReturned = -1;
+
+        Itr(int cursor, int index) {
+            this.cursor = cursor;
+            this.index = index;
+        }
+
+        public boolean hasNext() {
+            return cursor < count;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (cursor >= count) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = cursor;
+            index = positions[cursor] + 1;
+            cursor++;
+            return (E) items[lastReturned];
+        }
+
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E previous() {
+            if (cursor <= 0) {
+                throw new NoSuchElementException();
+            }
+            cursor--;
+            lastReturned = cursor;
+            index = positions[cursor];
+            return (E) items[cursor];
+        }
+
+        public int nextIndex() {
+            return index;
+        }
+
+        public int previousIndex() {
+            return index - 1;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void set(E element) {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            items[lastReturned] = element;
+        }
+
+        public void add(E element) {
+            insert(cursor, index, element);
+            cursor++;
+            index++;
+            lastReturned = -1;
+        }
+    }
+}
@@ -755,30 +755,58 @@ public class Utils {
     // Replaces entities with actual characters
     //
     public static String deserializeEntities(String str, boolean recognizeUnicodeChars) {
-        StringBuffer buf = new StringBuffer(str);
+        if (str.indexOf('&') < 0) {
+            return str;
+        }
+        return deserializeEntities(str.toCharArray(), 0, str.length(), recognizeUnicodeChars);
+    }
+
+    /**
+     * Replaces entities in the specified characters with actual characters.
+     * Decoded text is never longer than the entity it replaces, so the output is built in a
+     * single array and the string is created once.
+     *
+     * @param chars
+     * @param off
+     * @param len
+     * @param recognizeUnicodeChars
+     * @return deserialized string
+     */
+    static String deserializeEntities(char[] chars, int off, int len, boolean recognizeUnicodeChars) {
+        int end = off + len;
+        int i = off;
+        while (i < end && chars[i] != '&') {
+            i++;
+        }
+        if (i == end) {
+            return new String(chars, off, len);
+        }
+
+        char[] buf = new char[len];
+        int length = i - off;
+        System.arraycopy(chars, off, buf, 0, length);
+
         SpecialEntities entities = SpecialEntities.INSTANCE;
         int entityStart = -1;
+        int bufEntityStart = -1;
         boolean numericEntity = false;
         boolean hexEntity = false;
         int maxEntityLength = entities.getMaxEntityLength();
-        int i = 0;
-        int length = buf.length();
-        while (i < length) {
-            if (buf.charAt(i) == '&') {
+        while (i < end) {
+            char ch = chars[i];
+            if (ch == '&') {
                 entityStart = i;
+                bufEntityStart = length;
                 numericEntity = false;
                 hexEntity = false;
-                ++i;
             } else if (entityStart != -1) {
-                if (buf.charAt(i) == ';') {
+                if (ch == ';') {
                     int entityValue = -1;
                     if (numericEntity) {
+                        int digitsStart = entityStart + (hexEntity ? 3 : 2);
                         try {
                             entityValue = Integer.parseInt(
-                                    buf.substring(
-                                            entityStart + (hexEntity ? 3 : 2),
-                                            i
-                                    ),
+                                    new String(chars, digitsStart, i - digitsStart),
                                     hexEntity ? 16 : 10
                             );
                         } catch (NumberFormatException e) {
@@ -791,35 +819,31 @@ public class Utils {
                         else if (!recognizeUnicodeChars)
                             entityValue = -1;
                     } else {
-                        SpecialEntity entity = entities.getSpecialEntity(buf.substring(entityStart + 1, i));
+                        SpecialEntity entity = entities.getSpecialEntity(new String(chars, entityStart + 1, i - entityStart - 1));
                         if (entity != null)
                             entityValue = entity.intValue();
                     }
 
+                    entityStart = -1;
                     if (entityValue >= 0) {
-                        char[] decodedEntity = Character.toChars(entityValue);
-                        buf.replace(entityStart, i + 1, new String(decodedEntity));
-                        length = buf.length();
-                        i = entityStart + decodedEntity.length;
-                    } else {
-                        ++i;
+                        length = bufEntityStart + Character.toChars(entityValue, buf, bufEntityStart);
+                        i++;
+                        continue;
                     }
-                    entityStart = -1;
                 } else {
-                    if (i == entityStart + 1 && buf.charAt(i) == '#') {
+                    if (i == entityStart + 1 && ch == '#') {
                         numericEntity = true;
-                    } else if (i == entityStart + 2 && numericEntity && buf.charAt(i) == 'x') {
+                    } else if (i == entityStart + 2 && numericEntity && ch == 'x') {
                         hexEntity = true;
                     } else if (i - entityStart > maxEntityLength) {
                         entityStart = -1;
                     }
-                    ++i;
                 }
-            } else {
-                ++i;
             }
+            buf[length++] = ch;
+            i++;
         }
-        return buf.toString();
+        return new String(buf, 0, length);
     }
 
     /**
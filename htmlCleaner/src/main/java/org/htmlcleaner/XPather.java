@@ -14,10 +14,13 @@
 package org.htmlcleaner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 /**
@@ -47,8 +50,40 @@ public class XPather {
     private static final int CM = '-';
     private static final int CS = ' ';
 
+    /**
+     * Number of compiled expressions kept by {@link #compile(String)}.
+     */
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<String, XPather> cache = new LinkedHashMap<String, XPather>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, XPather> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     // array of basic tokens of which XPath expression is made
-    private String[] tokenArray;
+    private final String[] tokenArray;
+
+    // tokens without surrounding whitespace
+    private final String[] trimmedTokens;
+
+    // index of the token closing the quote, bracket or step started by each token, or -1
+    private final int[] closingIndexes;
+
+    // numeric tokens and their values, null where the value could not be parsed
+    private final boolean[] integerTokens;
+    private final boolean[] doubleTokens;
+    private final Object[] numbers;
+
+    // tokens that could be the name of a function call
+    private final boolean[] functionNames;
+
+    // string constants, for each opening quote
+    private final String[] quotedStrings;
+
+    // plan for evaluating the expression lazily, or null if it is not a simple location path
+    private final SimplePath simplePath;
 
     /**
      * Constructor - creates XPather instance with specified XPath expression.
@@ -67,6 +102,66 @@ public class XPather {
         while (tokenizer.hasMoreTokens()) {
             tokenArray[index++] = tokenizer.nextToken();
         }
+
+        //
+        // Work out once everything that depends only on the expression, so that evaluating it
+        // against many nodes only looks it up
+        //
+        trimmedTokens = new String[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            trimmedTokens[i] = tokenArray[i].trim();
+        }
+        closingIndexes = new int[tokenCount];
+        integerTokens = new boolean[tokenCount];
+        doubleTokens = new boolean[tokenCount];
+        numbers = new Object[tokenCount];
+        functionNames = new boolean[tokenCount];
+        quotedStrings = new String[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            String token = tokenArray[i];
+            closingIndexes[i] = scanClosingIndex(i, tokenCount - 1);
+            functionNames[i] = isIdentifier(token) || isToken("(", i + 1);
+            if (isValidInteger(token)) {
+                integerTokens[i] = true;
+                try {
+                    numbers[i] = Integer.valueOf(token);
+                } catch (NumberFormatException e) {
+                    // thrown again when evaluated
+                }
+            } else if (isValidDouble(token)) {
+                doubleTokens[i] = true;
+                try {
+                    numbers[i] = Double.valueOf(token);
+                } catch (NumberFormatException e) {
+                    // thrown again when evaluated
+                }
+            }
+            if (("\"".equals(token) || "'".equals(token)) && closingIndexes[i] > i) {
+                quotedStrings[i] = flatten(i + 1, closingIndexes[i] - 1);
+            }
+        }
+        simplePath = compileSimplePath();
+    }
+
+    /**
+     * Returns the compiled form of the expression, shared with earlier calls for the same
+     * expression while it is among the recently used ones.
+     *
+     * @param expression
+     * @return XPather instance for the expression.
+     */
+    public static XPather compile(String expression) {
+        XPather xPather;
+        synchronized (cache) {
+            xPather = cache.get(expression);
+        }
+        if (xPather == null) {
+            xPather = new XPather(expression);
+            synchronized (cache) {
+                cache.put(expression, xPather);
+            }
+        }
+        return xPather;
     }
 
     private static boolean isValidInteger(String value) {
@@ -96,6 +191,15 @@ public class XPather {
             throw new XPatherException("Cannot evaluate XPath expression against null value!");
         }
 
+        if (isStreamed()) {
+            ArrayList<Object> result = new ArrayList<Object>();
+            Iterator<Object> iterator = simplePath.iterator(node);
+            while (iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+            return result.toArray();
+        }
+
         Collection collectionResult = evaluateAgainst(singleton(node), 0, tokenArray.length - 1, false, 1, 0, false, null);
         Object[] array = new Object[collectionResult.size()];
 
@@ -108,6 +212,164 @@ public class XPather {
         return array;
     }
 
+    /**
+     * Evaluates XPath expression against specified TagNode instance, returning the same nodes
+     * and values as {@link #evaluateAgainstNode(TagNode)}.
+     * <p>Simple location paths such as <code>//a[@href]</code> or <code>/body/div[2]/@id</code>
+     * are evaluated while iterating, without collecting the nodes of every step, so the first
+     * results are available before the whole document is searched. Other expressions are
+     * evaluated fully before the iterator is returned.</p>
+     *
+     * @param node
+     * @return iterator over the resulting TagNode instances and Strings.
+     */
+    public Iterator<Object> iterateAgainstNode(TagNode node) throws XPatherException {
+        if (node == null) {
+            throw new XPatherException("Cannot evaluate XPath expression against null value!");
+        }
+
+        if (isStreamed()) {
+            return simplePath.iterator(node);
+        }
+        return Arrays.asList(evaluateAgainstNode(node)).iterator();
+    }
+
+    /**
+     * Subclasses may change how expressions are interpreted, so they always go through the
+     * interpreter.
+     */
+    private boolean isStreamed() {
+        return simplePath != null && getClass() == XPather.class;
+    }
+
+    /**
+     * Recognizes expressions made of element steps with <code>[@att]</code>,
+     * <code>[@att='value']</code>, <code>[n]</code> and <code>[last()]</code> predicates, optionally
+     * followed by one attribute step, which {@link SimplePath} evaluates lazily.
+     *
+     * @return plan for the expression, or null if it has any other form.
+     */
+    private SimplePath compileSimplePath() {
+        int length = tokenArray.length;
+        List<SimplePath.Step> steps = new ArrayList<SimplePath.Step>();
+        int i = skipEmpty(0, length - 1);
+        while (i < length) {
+            if (!"/".equals(tokenArray[i])) {
+                return null;
+            }
+            boolean isRecursive = i + 1 < length && "/".equals(tokenArray[i + 1]);
+            if (isRecursive) {
+                i++;
+            }
+            int nameIndex = skipEmpty(i + 1, length - 1);
+            if (nameIndex >= length || functionNames[nameIndex]) {
+                return null;
+            }
+            String name = trimmedTokens[nameIndex];
+            if (isAtt(name)) {
+                name = name.substring(1);
+                if (isRecursive || !isSimpleName(name) || skipEmpty(nameIndex + 1, length - 1) < length) {
+                    return null;
+                }
+                return new SimplePath(steps, name);
+            }
+            if (!"*".equals(name) && !isSimpleName(name)) {
+                return null;
+            }
+            List<SimplePath.Predicate> predicates = new ArrayList<SimplePath.Predicate>();
+            i = skipEmpty(nameIndex + 1, length - 1);
+            while (i < length && "[".equals(tokenArray[i])) {
+                int closingBracket = closingIndexes[i];
+                SimplePath.Predicate predicate = closingBracket > i ? compilePredicate(i + 1, closingBracket - 1) : null;
+                if (predicate == null) {
+                    return null;
+                }
+                predicates.add(predicate);
+                i = skipEmpty(closingBracket + 1, length - 1);
+            }
+            steps.add(new SimplePath.Step(name, isRecursive, predicates));
+        }
+
+        return steps.isEmpty() ? null : new SimplePath(steps, null);
+    }
+
+    /**
+     * @param from first token inside the brackets
+     * @param to last token inside the brackets
+     * @return predicate made of the tokens, or null if it is not one of the simple forms.
+     */
+    private SimplePath.Predicate compilePredicate(int from, int to) {
+        int first = skipEmpty(from, to);
+        if (first > to) {
+            return null;
+        }
+        int second = skipEmpty(first + 1, to);
+        String token = trimmedTokens[first];
+        if (isAtt(token) && isSimpleName(token.substring(1))) {
+            String attName = token.substring(1);
+            if (second > to) {
+                return new SimplePath.Predicate(SimplePath.HAS_ATTRIBUTE, attName, null, 0);
+            }
+            int quote = skipEmpty(second + 1, to);
+            if (!"=".equals(tokenArray[second]) || quote > to || quotedStrings[quote] == null) {
+                return null;
+            }
+            int closingQuote = closingIndexes[quote];
+            if (closingQuote > to || skipEmpty(closingQuote + 1, to) <= to) {
+                return null;
+            }
+            // the other kind of quote inside the string would throw off the bracket matching
+            for (int i = quote + 1; i < closingQuote; i++) {
+                if ("\"".equals(tokenArray[i]) || "'".equals(tokenArray[i])) {
+                    return null;
+                }
+            }
+            return new SimplePath.Predicate(SimplePath.ATTRIBUTE_EQUALS, attName, quotedStrings[quote], 0);
+        }
+        if (second > to && numbers[first] instanceof Integer) {
+            return new SimplePath.Predicate(SimplePath.POSITION, null, null, ((Integer) numbers[first]).intValue());
+        }
+        if ("last".equals(token) && second == first + 1 && second + 1 == to
+                && "(".equals(tokenArray[second]) && ")".equals(tokenArray[to])) {
+            return new SimplePath.Predicate(SimplePath.LAST, null, null, 0);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return index of the first token from the given one that is not whitespace, or
+     * <code>to + 1</code> if there is none.
+     */
+    private int skipEmpty(int from, int to) {
+        while (from <= to && trimmedTokens[from].length() == 0) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Checks if token is a plain element or attribute name.
+     *
+     * @param s
+     */
+    private static boolean isSimpleName(String s) {
+        if (s.length() == 0) {
+            return false;
+        }
+        char ch = s.charAt(0);
+        if (ch != '_' && !Character.isLetter(ch)) {
+            return false;
+        }
+        for (int i = 1; i < s.length(); i++) {
+            ch = s.charAt(i);
+            if (ch != '_' && ch != '-' && ch != '.' && ch != ':' && !Character.isLetterOrDigit(ch)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void throwStandardException() throws XPatherException {
         throw new XPatherException();
     }
@@ -121,7 +383,7 @@ public class XPather {
                                          boolean isFilterContext,
                                          Collection filterSource) throws XPatherException {
         if (from >= 0 && to < tokenArray.length && from <= to) {
-            if ("".equals(tokenArray[from].trim())) {
+            if (trimmedTokens[from].length() == 0) {
                 return evaluateAgainst(object, from + 1, to, isRecursive, position, last, isFilterContext, filterSource);
             } else if (isToken("(", from)) {
                 int closingBracket = findClosingIndex(from, to);
@@ -142,7 +404,7 @@ public class XPather {
             } else if (isToken("\"", from) || isToken("'", from)) { // string constant
                 int closingQuote = findClosingIndex(from, to);
                 if (closingQuote > from) {
-                    Collection value = singleton(flatten(from + 1, closingQuote - 1));
+                    Collection value = singleton(quotedStrings[from]);
                     return evaluateAgainst(value, closingQuote + 1, to, false, position, last, isFilterContext, filterSource);
                 } else {
                     throwStandardException();
@@ -176,11 +438,11 @@ public class XPather {
                 int closingBracketIndex = findClosingIndex(from + 1, to);
                 Collection funcValue = evaluateFunction(object, from, to, position, last, isFilterContext);
                 return evaluateAgainst(funcValue, closingBracketIndex + 1, to, false, 1, last, isFilterContext, filterSource);
-            } else if (isValidInteger(tokenArray[from])) {
-                Collection value = singleton(Integer.valueOf(tokenArray[from]));
+            } else if (integerTokens[from]) {
+                Collection value = singleton(numbers[from] != null ? numbers[from] : Integer.valueOf(tokenArray[from]));
                 return evaluateAgainst(value, from + 1, to, false, position, last, isFilterContext, filterSource);
-            } else if (isValidDouble(tokenArray[from])) {
-                Collection value = singleton(Double.valueOf(tokenArray[from]));
+            } else if (doubleTokens[from]) {
+                Collection value = singleton(numbers[from] != null ? numbers[from] : Double.valueOf(tokenArray[from]));
                 return evaluateAgainst(value, from + 1, to, false, position, last, isFilterContext, filterSource);
             } else {
                 return getElementsByName(object, from, to, isRecursive, isFilterContext);
@@ -255,7 +517,7 @@ public class XPather {
      * @return True if it is valid function call, false otherwise.
      */
     private boolean isFunctionCall(int from, int to) {
-        if (!isIdentifier(tokenArray[from]) && !isToken("(", from + 1)) {
+        if (!functionNames[from]) {
             return false;
         }
 
@@ -279,7 +541,7 @@ public class XPather {
                                           int position,
                                           int last,
                                           boolean isFilterContext) throws XPatherException {
-        String name = tokenArray[from].trim();
+        String name = trimmedTokens[from];
         ArrayList result = new ArrayList();
 
         final int size = source.size();
@@ -357,8 +619,7 @@ public class XPather {
     }
 
     private boolean isToken(String token, int index) {
-        int len = tokenArray.length;
-        return index >= 0 && index < len && tokenArray[index].trim().equals(token.trim());
+        return index >= 0 && index < trimmedTokens.length && trimmedTokens[index].equals(token.trim());
     }
 
     /**
@@ -368,6 +629,18 @@ public class XPather {
      * no closing token within expected bounds.
      */
     private int findClosingIndex(int from, int to) {
+        if (from < to) {
+            int closingIndex = closingIndexes[from];
+            return closingIndex <= to ? closingIndex : -1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Scans the tokens for the closing index looked up by {@link #findClosingIndex(int, int)}.
+     */
+    private int scanClosingIndex(int from, int to) {
         if (from < to) {
             String currToken = tokenArray[from];
 
@@ -448,7 +721,7 @@ public class XPather {
      * @return Colection of TagNode instances or collection of String instances.
      */
     private Collection getElementsByName(Collection source, int from, int to, boolean isRecursive, boolean isFilterContext) throws XPatherException {
-        String name = tokenArray[from].trim();
+        String name = trimmedTokens[from];
 
         if (isAtt(name)) {
             name = name.substring(1);
@@ -506,14 +779,14 @@ public class XPather {
                         TagNode parent = node.getParent();
                         subnodes = parent != null ? singleton(parent) : new ArrayList();
                     } else {
-                        subnodes = isAll ? node.getChildTagList() : node.getElementListByName(name, false);
+                        subnodes = isAll ? node.getChildTagView() : node.getElementListByName(name, false);
                     }
 
                     LinkedHashSet nodeSet = new LinkedHashSet(subnodes);
                     Collection refinedSubnodes = evaluateAgainst(nodeSet, from + 1, to, false, index, nodeSet.size(), isFilterContext, null);
 
                     if (isRecursive) {
-                        List childTags = node.getChildTagList();
+                        List childTags = node.getChildTagView();
                         if (isSelf || isParent || isAll) {
                             result.addAll(refinedSubnodes);
                         }
@@ -25,6 +25,10 @@ public class TagNodeNameCondition implements ITagNodeCondition {
         this.name = name;
     }
 
+    public String getName() {
+        return name;
+    }
+
     public boolean satisfy(TagNode tagNode) {
         return tagNode != null && tagNode.getName().equalsIgnoreCase(this.name);
     }
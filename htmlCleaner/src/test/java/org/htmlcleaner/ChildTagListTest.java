@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the child tag list and its read-only view.
+ */
+public class ChildTagListTest {
+
+    private final TagNode body = new HtmlCleaner().clean("<p>a</p><div>b</div><span>c</span>").findElementByName("body", false);
+
+    @Test
+    public void childTagListIsMutableCopy() {
+        List<TagNode> children = body.getChildTagList();
+        children.remove(0);
+        children.add(0, new TagNode("hr"));
+
+        assertEquals("hr", children.get(0).getName());
+        assertEquals("p", body.getChildTagList().get(0).getName());
+        assertEquals(3, body.getChildTagCount());
+    }
+
+    @Test
+    public void childTagViewIsSharedUntilChildrenChange() {
+        List<TagNode> view = body.getChildTagView();
+        assertSame(view, body.getChildTagView());
+
+        body.addChild(new TagNode("hr"));
+
+        assertEquals(3, view.size());
+        assertEquals(4, body.getChildTagView().size());
+        assertEquals("hr", body.getChildTag(3).getName());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void childTagViewIsReadOnly() {
+        body.getChildTagView().remove(0);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the buffers a session keeps from one document to the next.
+ */
+public class CleanTimeValuesTest {
+
+    private final HtmlCleaner cleaner = new HtmlCleaner();
+
+    @Test
+    public void smallWorkingBufferIsKept() {
+        CleanTimeValues values = new CleanTimeValues();
+        cleaner.cleanContent(document(1000), values);
+        char[] buffer = values.workingBuffer;
+        values.reset();
+
+        assertSame(buffer, values.workingBuffer);
+    }
+
+    @Test
+    public void largeWorkingBufferIsDropped() {
+        CleanTimeValues values = new CleanTimeValues();
+        cleaner.cleanContent(document(30000), values);
+        assertNotNull(values.workingBuffer);
+        values.reset();
+
+        assertNull(values.workingBuffer);
+        assertNotNull(cleaner.cleanContent(document(10), values).findElementByName("p", true));
+    }
+
+    private static String document(int paragraphs) {
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            document.append("<p>paragraph</p>");
+        }
+        return document.toString();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.htmlcleaner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Stress test of a single cleaner with frozen properties shared by several threads.
+ */
+public class ConcurrentCleanTest {
+
+    private static final int THREADS = 8;
+    private static final int CLEANS_PER_THREAD = 200;
+
+    private static final String[] FRAGMENTS = {
+            "<p>", "</p>", "text ", "<b>", "</b>", "<i>bold<b>both</i>", "<table><tr><td>", "</td></tr></table>",
+            "<td>cell", "<ul><li>one<li>two</ul>", "<div id=\"main\" class=\"a b\">", "</div>", "<br>", "<hr/>",
+            "<script>if (a < b) { x = '</div>'; }</script>", "<style>p { color: red }</style>", "<!-- comment -->",
+            "<font size=2>small</font>", "<center>mid</center>", "<a href=\"?a=1&b=2\">link</a>", "&amp; &lt; &nbsp;",
+            "<select><option>a<option>b</select>", "<textarea><b>raw</b></textarea>", "<title>t</title>",
+            "<svg:rect width=\"1\"/>", "<![CDATA[data]]>", "<noscript><p>x</p></noscript>", "<form><input name=q>"
+    };
+
+    @Test
+    public void sharedCleanerMatchesSingleThreadedCleans() throws Exception {
+        List<String> documents = createDocuments();
+        for (int config = 0; config < 5; config++) {
+            assertSharedCleans(config, documents);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void frozenPropertiesRejectChanges() {
+        new CleanerProperties().freeze().setOmitComments(true);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void frozenTransformationsRejectChanges() {
+        CleanerProperties properties = createProperties(4).freeze();
+        properties.getCleanerTransformations().addTransformation(new TagTransformation("b", "strong"));
+    }
+
+    @Test
+    public void providerGivenWithFrozenPropertiesLeavesThemUnchanged() {
+        CleanerProperties properties = new CleanerProperties().freeze();
+        HtmlCleaner cleaner = new HtmlCleaner(Html4TagProvider.INSTANCE, properties);
+
+        assertSame(Html5TagProvider.INSTANCE, properties.getTagInfoProvider());
+        assertSame(Html4TagProvider.INSTANCE, cleaner.getTagInfoProvider());
+        assertSame(Html4TagProvider.INSTANCE, cleaner.getProperties().getTagInfoProvider());
+        assertTrue(cleaner.getProperties().isFrozen());
+        assertSame(properties, new HtmlCleaner(Html5TagProvider.INSTANCE, properties).getProperties());
+    }
+
+    private void assertSharedCleans(int config, final List<String> documents) throws Exception {
+        final List<String> expected = new ArrayList<String>();
+        for (String document : documents) {
+            CleanerProperties properties = createProperties(config);
+            expected.add(serialize(properties, new HtmlCleaner(properties).clean(document)));
+        }
+
+        final CleanerProperties properties = createProperties(config).freeze();
+        final HtmlCleaner cleaner = new HtmlCleaner(properties);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                final Random random = new Random(config * THREADS + thread);
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        //
+                        // Plain clean calls and a session of this thread are mixed on the same cleaner
+                        //
+                        CleanSession session = cleaner.newSession();
+                        for (int i = 0; i < CLEANS_PER_THREAD; i++) {
+                            int index = random.nextInt(documents.size());
+                            String document = documents.get(index);
+                            TagNode node = random.nextBoolean() ? cleaner.clean(document) : session.clean(document);
+                            String actual = serialize(properties, node);
+                            if (!actual.equals(expected.get(index))) {
+                                return "different output for document " + index + ": " + document;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                String failure = result.get();
+                if (failure != null) {
+                    fail("configuration " + config + ", " + failure);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static CleanerProperties createProperties(int config) {
+        CleanerProperties properties = new CleanerProperties();
+        switch (config) {
+            case 1:
+                properties.setPruneTags("script,style,font");
+                properties.setOmitComments(true);
+                break;
+            case 2:
+                properties.setHtmlVersion(4);
+                properties.setNamespacesAware(false);
+                break;
+            case 3:
+                properties.setAllowTags("html,head,body,table,tr,td,p,div,b,a");
+                properties.setDeserializeEntities(true);
+                break;
+            case 4:
+                CleanerTransformations transformations = new CleanerTransformations();
+                TagTransformation transformation = new TagTransformation("font", "span", false);
+                transformation.addAttributeTransformation("size", "class");
+                transformations.addTransformation(transformation);
+                transformations.addTransformation(new TagTransformation("center", null));
+                properties.setCleanerTransformations(transformations);
+                break;
+            default:
+                break;
+        }
+        return properties;
+    }
+
+    private static List<String> createDocuments() {
+        List<String> documents = new ArrayList<String>();
+        Random random = new Random(15);
+        for (int i = 0; i < 60; i++) {
+            StringBuilder document = new StringBuilder();
+            int fragments = 5 + random.nextInt(40);
+            for (int j = 0; j < fragments; j++) {
+                document.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            documents.add(document.toString());
+        }
+        return documents;
+    }
+
+    private static String serialize(CleanerProperties properties, TagNode node) {
+        return new SimpleXmlSerializer(properties).getAsString(node);
+    }
+}
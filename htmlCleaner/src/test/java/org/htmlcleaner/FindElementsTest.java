@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.htmlcleaner.conditional.TagNodeAttValueCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of finding elements while the content is cleaned.
+ */
+public class FindElementsTest {
+
+    private static final String CONTENT = "<html lang=\"en\"><body><form name=\"formular\"><input name=\"q\"></form><p>rest</p>";
+
+    private final HtmlCleaner cleaner = new HtmlCleaner();
+
+    @Test
+    public void rootIsNeverReturned() {
+        TagNode root = cleaner.clean(CONTENT);
+        TagNode[] found = cleaner.findElements(CONTENT, new TagNodeNameCondition("html"), new TagNodeAttValueCondition("lang", "en", true));
+
+        assertNull(root.findElementByName("html", true));
+        assertNull(root.findElementByAttValue("lang", "en", true, true));
+        assertNull(found[0]);
+        assertNull(found[1]);
+    }
+
+    @Test
+    public void sameElementsAsFindElementOfWholeTree() {
+        TagNode root = cleaner.clean(CONTENT);
+        TagNode[] found = cleaner.findElements(CONTENT, new TagNodeAttValueCondition("name", "formular", true), new TagNodeNameCondition("input"));
+
+        assertEquals("form", found[0].getName());
+        assertEquals("input", found[1].getName());
+        assertSame(found[0], found[1].getParent());
+        assertEquals(root.findElementByAttValue("name", "formular", true, true).getName(), found[0].getName());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the budget limits of the different kinds of clean calls.
+ */
+public class ParseBudgetTest {
+
+    private final HtmlCleaner cleaner = new HtmlCleaner();
+
+    @Test
+    public void findElementsStopsAtTokenLimit() {
+        try {
+            cleaner.findElements(paragraphs(1000), tokenBudget(100), new TagNodeNameCondition("table"));
+            fail("token limit not applied");
+        } catch (ParseAbortedException e) {
+            assertEquals(ParseAbortedException.Reason.TOKEN_LIMIT, e.getReason());
+            assertNotNull(e.getPartialResult());
+        }
+    }
+
+    @Test
+    public void findElementsWithinBudget() {
+        TagNode[] found = cleaner.findElements(paragraphs(10), tokenBudget(100), new TagNodeNameCondition("p"));
+        assertEquals("p", found[0].getName());
+    }
+
+    @Test
+    public void pushParserStopsAtDepthLimit() {
+        ParseBudget budget = new ParseBudget();
+        budget.setMaxDepth(20);
+        HtmlPushParser parser = cleaner.newPushParser(budget);
+        for (int i = 0; i < 100; i++) {
+            parser.feed("<div>");
+        }
+        try {
+            parser.finish();
+            fail("depth limit not applied");
+        } catch (ParseAbortedException e) {
+            assertEquals(ParseAbortedException.Reason.DEPTH_LIMIT, e.getReason());
+        }
+    }
+
+    @Test
+    public void cancelledPushParserIgnoresFurtherContent() {
+        ParseBudget budget = new ParseBudget();
+        HtmlPushParser parser = cleaner.newPushParser(budget);
+        parser.feed(paragraphs(10));
+        budget.cancel();
+        parser.feed(paragraphs(1000));
+        try {
+            parser.finish();
+            fail("cancellation not applied");
+        } catch (ParseAbortedException e) {
+            assertEquals(ParseAbortedException.Reason.CANCELLED, e.getReason());
+            assertNull(e.getPartialResult());
+        }
+    }
+
+    @Test
+    public void eventParseClosesOpenElementsAtTokenLimit() throws Exception {
+        DepthHandler handler = new DepthHandler();
+        try {
+            cleaner.parse(new StringReader("<div><div>" + paragraphs(1000)), handler, tokenBudget(100));
+            fail("token limit not applied");
+        } catch (ParseAbortedException e) {
+            assertEquals(ParseAbortedException.Reason.TOKEN_LIMIT, e.getReason());
+            assertEquals(0, handler.depth);
+        }
+    }
+
+    @Test
+    public void eventParseStopsAtDepthLimit() {
+        ParseBudget budget = new ParseBudget();
+        budget.setMaxDepth(20);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("<span>");
+        }
+        try {
+            cleaner.parse(content.toString(), new DepthHandler(), budget);
+            fail("depth limit not applied");
+        } catch (ParseAbortedException e) {
+            assertEquals(ParseAbortedException.Reason.DEPTH_LIMIT, e.getReason());
+        }
+    }
+
+    private static class DepthHandler implements HtmlEventHandler {
+
+        private int depth;
+
+        @Override
+        public void doctype(DoctypeToken doctype) {
+        }
+
+        @Override
+        public void startTag(TagNode tag) {
+            depth++;
+        }
+
+        @Override
+        public void endTag(String name) {
+            depth--;
+        }
+
+        @Override
+        public void text(ContentNode text) {
+        }
+
+        @Override
+        public void comment(CommentNode comment) {
+        }
+    }
+
+    private static ParseBudget tokenBudget(int maxTokens) {
+        ParseBudget budget = new ParseBudget();
+        budget.setMaxTokens(maxTokens);
+        return budget;
+    }
+
+    private static String paragraphs(int count) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            content.append("<p>paragraph</p>");
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the push parser builds the same tree as {@link HtmlCleaner#clean(String)}, wherever
+ * the content is split into chunks.
+ */
+public class PushParserTest {
+
+    private static final String[] CONTENTS = {
+            "<!DOCTYPE html><html><head><title>t</title></head><body><p>text</p></body></html>",
+            "<p>before<!-- a comment - with -- dashes -->after</p><!---->",
+            "<div><![CDATA[ <b>not a tag</b> ]]></div><svg><![CDATA[x]]></svg>",
+            "<script><![CDATA[ if (a < b) { c(']]'); } ]]></script><style><![CDATA[p{}]]></style>",
+            "<script>if (a < b && c > d) { x = '</div>'; } // <!-- </scr + ipt></script><p>after",
+            "<style>p > b { content: \"</p>\" }</style><textarea><b>raw</b> &amp;</textarea>",
+            "<p>&amp; &lt;&gt; &nbsp;&copy; &#169; &#x41;&#65 &unknown; & &amp</p>",
+            "<div title='a > b' class=\"x\" data-x=y checked>c</div><a href=\"?a=1&b=2\">l</a>",
+            "<table><tr><td>1<td>2</table><ul><li>a<li>b</ul><b><p>c</b>d</p>",
+            "<?xml version=\"1.0\"?><!x><p>a<b>b<i>c</p>d</i>e</b>f<br/><hr>",
+            "text only\r\nwith lines\n\nand < stray & chars >"
+    };
+
+    private final CleanerProperties properties = new CleanerProperties();
+    private final HtmlCleaner cleaner = new HtmlCleaner(properties);
+
+    @Test
+    public void sameTreeForTwoChunks() {
+        for (String content : CONTENTS) {
+            String expected = serialize(cleaner.clean(content));
+            for (int split = 0; split <= content.length(); split++) {
+                HtmlPushParser parser = cleaner.newPushParser();
+                parser.feed(content.substring(0, split));
+                parser.feed(content.substring(split));
+                assertEquals("split at " + split + " of " + content, expected, serialize(parser.finish()));
+            }
+        }
+    }
+
+    @Test
+    public void sameTreeForThreeChunks() {
+        for (String content : CONTENTS) {
+            String expected = serialize(cleaner.clean(content));
+            for (int first = 0; first <= content.length(); first++) {
+                for (int second = first; second <= content.length(); second += 3) {
+                    HtmlPushParser parser = cleaner.newPushParser();
+                    parser.feed(content.substring(0, first));
+                    parser.feed(content.substring(first, second));
+                    parser.feed(content.substring(second));
+                    assertEquals("split at " + first + " and " + second + " of " + content, expected, serialize(parser.finish()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameTreeForSingleCharChunks() {
+        for (String content : CONTENTS) {
+            HtmlPushParser parser = cleaner.newPushParser();
+            for (int i = 0; i < content.length(); i++) {
+                parser.feed(content.substring(i, i + 1));
+            }
+            assertEquals(content, serialize(cleaner.clean(content)), serialize(parser.finish()));
+        }
+    }
+
+    @Test
+    public void sameTreeForBytesSplitWithinCharacters() throws Exception {
+        String content = "<p title=\"č\">šťastný € 𝄞</p><!-- ž --><script>'ř'</script>";
+        byte[] bytes = content.getBytes(Charset.forName("UTF-8"));
+        String expected = serialize(cleaner.clean(content));
+        for (int split = 0; split <= bytes.length; split++) {
+            HtmlPushParser parser = cleaner.newPushParser("UTF-8");
+            parser.feed(ByteBuffer.wrap(bytes, 0, split));
+            parser.feed(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            assertEquals("split at byte " + split, expected, serialize(parser.finish()));
+        }
+    }
+
+    @Test
+    public void sameTreeWithSkippedPrunedContent() {
+        CleanerProperties skipping = new CleanerProperties();
+        skipping.setPruneTags("script,style,div");
+        skipping.setSkipPrunedContent(true);
+        HtmlCleaner skippingCleaner = new HtmlCleaner(skipping);
+        for (String content : CONTENTS) {
+            String expected = serialize(skipping, skippingCleaner.clean(content));
+            for (int split = 0; split <= content.length(); split++) {
+                HtmlPushParser parser = skippingCleaner.newPushParser();
+                parser.feed(content.substring(0, split));
+                parser.feed(content.substring(split));
+                assertEquals("split at " + split + " of " + content, expected, serialize(skipping, parser.finish()));
+            }
+        }
+    }
+
+    private String serialize(TagNode node) {
+        return serialize(properties, node);
+    }
+
+    private static String serialize(CleanerProperties properties, TagNode node) {
+        return new SimpleXmlSerializer(properties).getAsString(node);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the trees built as the tokens arrive where the tags have to be rebalanced: required
+ * parents, copied tags and tags continued after an enclosing tag closes. The expected trees are
+ * the ones built before the tokens were attached to their parents on arrival. The same tree is
+ * expected from content pushed one char at a time.
+ */
+public class TreeBalancingTest {
+
+    private final CleanerProperties properties = new CleanerProperties();
+    private final HtmlCleaner cleaner = new HtmlCleaner(properties);
+
+    public TreeBalancingTest() {
+        properties.setOmitXmlDeclaration(true);
+    }
+
+    @Test
+    public void requiredParentIsAdded() {
+        assertTree("<table><td>a</td></table>",
+                "<html>\n<head />\n<body><table><tbody><tr><td>a</td></tr></tbody></table></body></html>");
+        assertTree("<td>cell</td>",
+                "<html>\n<head />\n<body>cell</body></html>");
+        assertTree("<table><tr>row<td>1</td></tr><caption>c</caption>text<tbody><tr><td>2</table>after",
+                "<html>\n<head />\n<body><table><tbody><tr>row<td>1</td></tr></tbody><caption>c</caption><tbody>text</tbody><tbody><tr><td>2</td></tr></tbody></table>after</body></html>");
+        assertTree("<li>one<li>two",
+                "<html>\n<head />\n<body><ul><li>one</li><li>two</li></ul></body></html>");
+        assertTree("<option>a<option>b",
+                "<html>\n<head />\n<body>ab</body></html>");
+    }
+
+    @Test
+    public void copiedTagsContinueInsideBlocks() {
+        assertTree("<b>one<p>two</b>three</p>four",
+                "<html>\n<head />\n<body><b>one</b><p><b>two</b>three</p><b>four</b></body></html>");
+        assertTree("<i>x<div>y<b>z</div>w</i>",
+                "<html>\n<head />\n<body><i>x</i><div><i>y<b>z</b></i></div><i>w</i></body></html>");
+        assertTree("<u><table><tr><td>1</u>2</table>",
+                "<html>\n<head />\n<body><table></table><u>1</u>2</body></html>");
+        assertTree("<b><i>bold italic</b> italic</i> plain",
+                "<html>\n<head />\n<body><b><i>bold italic</i></b><i> italic</i> plain</body></html>");
+    }
+
+    @Test
+    public void continueAfterTagsAreReopened() {
+        assertTree("<font color=red><p>a</font>b</p>c",
+                "<html>\n<head />\n<body><font color=\"red\"><p>a</p></font>bc</body></html>");
+        assertTree("<font size=2><div>a<font>b</div>c</font>d",
+                "<html>\n<head />\n<body><font size=\"2\"><div>a<font>b</font></div>c</font>d</body></html>");
+        assertTree("<a href=x>one<a href=y>two</a>",
+                "<html>\n<head />\n<body><a href=\"x\">one</a><a href=\"y\">two</a></body></html>");
+    }
+
+    @Test
+    public void closedAndMovedTags() {
+        assertTree("<p>para<table><tr><td>cell</td></tr></table>after",
+                "<html>\n<head />\n<body><p>para</p><table><tbody><tr><td>cell</td></tr></tbody></table><p>after</p></body></html>");
+        assertTree("<title>t</title><p>a<meta name=x><link rel=y>b",
+                "<html>\n<head><title>t</title></head>\n<body><p>a<meta name=\"x\" /><link rel=\"y\" />b</p></body></html>");
+        assertTree("<html><body><p>a</body><p>b</html><p>c",
+                "<html>\n<head />\n<body><p>a</p><p>b</p><p>c</p></body></html>");
+        assertTree("<dl><dt>t<dd>d<dt>t2</dl>",
+                "<html>\n<head />\n<body><dl><dt>t</dt><dd>d</dd><dt>t2</dt></dl></body></html>");
+        assertTree("<select><option>a<p>b</select>",
+                "<html>\n<head />\n<body><select><option>a</option>b</select></body></html>");
+    }
+
+    private void assertTree(String content, String expected) {
+        assertEquals(content, expected, serialize(cleaner.clean(content)));
+
+        HtmlPushParser parser = cleaner.newPushParser();
+        for (int i = 0; i < content.length(); i++) {
+            parser.feed(content.substring(i, i + 1));
+        }
+        assertEquals(content, expected, serialize(parser.finish()));
+    }
+
+    private String serialize(TagNode node) {
+        return new SimpleXmlSerializer(properties).getAsString(node);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Lukáš Anda. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.htmlcleaner.conditional;
+
+import org.htmlcleaner.TagNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the attribute existence condition, which looks up the lower case name as it is.
+ */
+public class TagNodeAttExistsConditionTest {
+
+    @Test
+    public void lowerCaseNameIsFound() {
+        TagNode node = new TagNode("div");
+        node.addAttribute("id", "main");
+
+        assertTrue(new TagNodeAttExistsCondition("id").satisfy(node));
+        assertTrue(new TagNodeAttExistsCondition("ID").satisfy(node));
+    }
+
+    @Test
+    public void mixedCaseNameIsNotFound() {
+        TagNode node = new TagNode("svg");
+        node.addAttribute("viewBox", "0 0 10 10");
+
+        assertTrue(node.hasAttribute("viewBox"));
+        assertFalse(new TagNodeAttExistsCondition("viewBox").satisfy(node));
+        assertFalse(new TagNodeAttExistsCondition("viewbox").satisfy(node));
+    }
+}